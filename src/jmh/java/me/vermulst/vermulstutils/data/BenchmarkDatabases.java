@@ -0,0 +1,104 @@
+package me.vermulst.vermulstutils.data;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * Creates the temp-file databases and tables the benchmarks run on.
+ * Single key tables have an INTEGER id, composite key tables a (region, slot) key with 1000 slots per region.
+ */
+final class BenchmarkDatabases {
+
+    protected static final int SLOTS_PER_REGION = 1000;
+    private static final int INSERT_CHUNK_SIZE = 10_000;
+
+    private BenchmarkDatabases() {
+    }
+
+    /**
+     * @param extraColumns - BIGINT columns added after name, xp and level to make the table wider
+     */
+    protected static Table.Builder<?> table(String name, boolean composite, int extraColumns) {
+        return table(name, composite, extraColumns, 1, false);
+    }
+
+    /**
+     * @param levelDefault - default value of the level column, changing it needs a rebuild of the table
+     * @param addedColumn - adds a nullable TEXT column at the end, which ALTER TABLE can add and drop in place
+     */
+    protected static Table.Builder<?> table(String name, boolean composite, int extraColumns, int levelDefault, boolean addedColumn) {
+        List<Column.Builder> columns = new ArrayList<>();
+        if (composite) {
+            columns.add(Column.builder(Integer.class).name("region").columnProperties(Column.ColumnProperty.PRIMARY_KEY, Column.ColumnProperty.NOT_NULL));
+            columns.add(Column.builder(Integer.class).name("slot").columnProperties(Column.ColumnProperty.PRIMARY_KEY, Column.ColumnProperty.NOT_NULL));
+        } else {
+            columns.add(Column.builder(Integer.class).name("id").columnProperties(Column.ColumnProperty.PRIMARY_KEY, Column.ColumnProperty.NOT_NULL));
+        }
+        columns.add(Column.builder(String.class).name("name"));
+        columns.add(Column.builder(Long.class).name("xp").columnProperties(Column.ColumnProperty.NOT_NULL).defaultValue(0L));
+        columns.add(Column.builder(Integer.class).name("level").columnProperties(Column.ColumnProperty.NOT_NULL).defaultValue(levelDefault));
+        for (int i = 0; i < extraColumns; i++) {
+            columns.add(Column.builder(Long.class).name("extra_" + i));
+        }
+        if (addedColumn) columns.add(Column.builder(String.class).name("added"));
+        Class<?> keyType = composite ? CompositeKey.class : Integer.class;
+        return Table.builder(keyType)
+                .name(name)
+                .columnBuilders(columns);
+    }
+
+    protected static Object key(boolean composite, int index) {
+        return composite ? CompositeKey.of(index / SLOTS_PER_REGION, index % SLOTS_PER_REGION) : index;
+    }
+
+    /**
+     * @return values of the non primary key columns for the row with the index
+     */
+    protected static List<Object> row(Table<?> table, int index) {
+        List<Column<?>> columns = table.getNonPrimaryKeyColumns();
+        List<Object> values = new ArrayList<>(columns.size());
+        values.add("player_" + index);
+        values.add((long) index * 10);
+        values.add(index % 100 + 1);
+        for (int i = 3; i < columns.size(); i++) {
+            values.add((long) index + i);
+        }
+        return values;
+    }
+
+    /** Inserts rows 0 until the amount, in batches of one transaction each
+     */
+    protected static void populate(Database database, Table<Object> table, boolean composite, int rows) {
+        Table.Saver<Object> saver = Table.saver(table, database);
+        Map<Object, List<Object>> chunk = new LinkedHashMap<>();
+        for (int i = 0; i < rows; i++) {
+            chunk.put(key(composite, i), row(table, i));
+            if (chunk.size() == INSERT_CHUNK_SIZE) {
+                saver.saveRows(chunk);
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) saver.saveRows(chunk);
+    }
+
+    protected static Path createDirectory() {
+        try {
+            return Files.createTempDirectory("vsqlite-bench");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    protected static void deleteDirectory(Path directory) {
+        if (directory == null) return;
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (IOException e) {
+            System.out.println("Failed deleting benchmark directory " + directory + ": " + e.getMessage());
+        }
+    }
+}
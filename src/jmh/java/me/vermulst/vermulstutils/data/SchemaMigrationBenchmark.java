@@ -0,0 +1,70 @@
+package me.vermulst.vermulstutils.data;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time of bringing a table of the given size in line with a changed schema, the same way Database#build and Database#updateTable do.
+ * Every call switches between two schemas, so the table does not have to be populated again in between:
+ * rebuild changes the default of a column, which needs a {@link TableMigration},
+ * alter adds or drops a nullable column, which SQLite changes in place.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SchemaMigrationBenchmark {
+
+    private static final String TABLE_NAME = "bench";
+
+    @Param({"1000", "100000", "1000000"})
+    public int rows;
+
+    @Param({"0", "16"})
+    public int extraColumns;
+
+    private Path directory;
+    private Database database;
+    private boolean changed;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.directory = BenchmarkDatabases.createDirectory();
+        this.database = Database.builder()
+                .path(this.directory.resolve(TABLE_NAME).toString())
+                .clearExistingTables()
+                .addAndOverride(BenchmarkDatabases.table(TABLE_NAME, false, this.extraColumns))
+                .build();
+        BenchmarkDatabases.populate(this.database, this.database.getTable((Class) Integer.class, TABLE_NAME), false, this.rows);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.database.delete();
+        BenchmarkDatabases.deleteDirectory(this.directory);
+    }
+
+    private Table<?> update(int levelDefault, boolean addedColumn) {
+        Table<?> table = BenchmarkDatabases.table(TABLE_NAME, false, this.extraColumns, levelDefault, addedColumn)
+                .migration(TableMigration.DEFAULT_CHUNK_SIZE, (name, copiedRows, totalRows) -> {})
+                .build(this.database.getWriter());
+        this.database.addTable(table);
+        return table;
+    }
+
+    @Benchmark
+    public Table<?> rebuild() {
+        this.changed = !this.changed;
+        return this.update(this.changed ? 2 : 1, false);
+    }
+
+    @Benchmark
+    public Table<?> alter() {
+        this.changed = !this.changed;
+        return this.update(1, this.changed);
+    }
+}
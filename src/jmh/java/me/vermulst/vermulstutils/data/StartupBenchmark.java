@@ -0,0 +1,106 @@
+package me.vermulst.vermulstutils.data;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time of Database.Builder#build with the given amount of tables, which have between 0 and 19 extra columns
+ * and a composite key for every fourth table. Every build opens a new database and its connections are closed outside of the measurement.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class StartupBenchmark {
+
+    private static final int MAX_EXTRA_COLUMNS = 20;
+    private static final int ROWS_PER_TABLE = 100;
+
+    @Param({"10", "100", "1000"})
+    public int tables;
+
+    private Path directory;
+    private String path;
+    private String emptyPath;
+    private List<Table.Builder<?>> builders;
+    private Database database;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.directory = BenchmarkDatabases.createDirectory();
+        this.path = this.directory.resolve("startup").toString();
+        this.emptyPath = this.directory.resolve("empty").toString();
+        this.builders = new ArrayList<>(this.tables);
+        for (int i = 0; i < this.tables; i++) {
+            this.builders.add(BenchmarkDatabases.table("bench_" + i, i % 4 == 0, i % MAX_EXTRA_COLUMNS));
+        }
+        Database database = this.declared(this.path);
+        for (Table<?> table : database.getTables()) {
+            boolean composite = table.getType().equals(CompositeKey.class);
+            BenchmarkDatabases.populate(database, (Table<Object>) table, composite, ROWS_PER_TABLE);
+        }
+        database.closeConnection();
+    }
+
+    /** Removes the database file the previous buildEmpty call created, with its WAL files so SQLite does not read them back
+     */
+    @Setup(Level.Invocation)
+    public void deleteEmpty() {
+        new File(this.emptyPath + ".db-wal").delete();
+        new File(this.emptyPath + ".db-shm").delete();
+        new File(this.emptyPath + ".db").delete();
+    }
+
+    @TearDown(Level.Invocation)
+    public void closeConnection() {
+        if (this.database == null) return;
+        this.database.closeConnection();
+        this.database = null;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkDatabases.deleteDirectory(this.directory);
+    }
+
+    private Database declared(String path) {
+        return Database.builder()
+                .path(path)
+                .clearExistingTables()
+                .addAndOverride(this.builders.toArray(new Table.Builder[0]))
+                .build();
+    }
+
+    /** Opens the existing database, discovering its tables from the schema
+     */
+    @Benchmark
+    public Database buildDiscovered() {
+        this.database = Database.builder()
+                .path(this.path)
+                .build();
+        return this.database;
+    }
+
+    /** Opens the existing database with its tables declared, which are unchanged and only have their fingerprint checked
+     */
+    @Benchmark
+    public Database buildDeclared() {
+        this.database = this.declared(this.path);
+        return this.database;
+    }
+
+    /** Creates every table in a new database
+     */
+    @Benchmark
+    public Database buildEmpty() {
+        this.database = this.declared(this.emptyPath);
+        return this.database;
+    }
+}
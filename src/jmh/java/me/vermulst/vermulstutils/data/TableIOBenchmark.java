@@ -0,0 +1,128 @@
+package me.vermulst.vermulstutils.data;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single threaded cost of the loader, saver and deleter hot paths on a table of the given size,
+ * with a single INTEGER or a composite primary key. Every call hits a random existing row.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TableIOBenchmark {
+
+    private static final String TABLE_NAME = "bench";
+
+    @Param({"1000", "100000", "1000000"})
+    public int rows;
+
+    @Param({"single", "composite"})
+    public String key;
+
+    private Path directory;
+    private Database database;
+    private Table<Object> table;
+    private boolean composite;
+    private Column<Long> xp;
+    private Table.Loader<Object> loader;
+    private Table.Saver<Object> saver;
+    private Table.Deleter<Object> deleter;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.composite = this.key.equals("composite");
+        this.directory = BenchmarkDatabases.createDirectory();
+        this.database = Database.builder()
+                .path(this.directory.resolve(TABLE_NAME).toString())
+                .clearExistingTables()
+                .addAndOverride(BenchmarkDatabases.table(TABLE_NAME, this.composite, 0))
+                .build();
+        this.table = this.database.getTable(this.composite ? (Class) CompositeKey.class : (Class) Integer.class, TABLE_NAME);
+        this.xp = this.table.getColumn(Long.class, "xp");
+        BenchmarkDatabases.populate(this.database, this.table, this.composite, this.rows);
+        this.loader = Table.loader(this.table, this.database);
+        this.saver = Table.saver(this.table, this.database);
+        this.deleter = Table.deleter(this.table, this.database);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.database.delete();
+        BenchmarkDatabases.deleteDirectory(this.directory);
+    }
+
+    private int randomIndex() {
+        return ThreadLocalRandom.current().nextInt(this.rows);
+    }
+
+    private Object randomKey() {
+        return BenchmarkDatabases.key(this.composite, this.randomIndex());
+    }
+
+    @Benchmark
+    public void saveValue() {
+        this.saver.saveValue(this.xp, this.randomKey(), ThreadLocalRandom.current().nextLong());
+    }
+
+    @Benchmark
+    public void saveRow() {
+        int index = this.randomIndex();
+        this.saver.saveRow(BenchmarkDatabases.key(this.composite, index), BenchmarkDatabases.row(this.table, index));
+    }
+
+    @Benchmark
+    public void saveEntry() {
+        this.saver.saveEntry(this.randomKey());
+    }
+
+    @Benchmark
+    public Long loadValue() {
+        return this.loader.loadValue(this.xp, this.randomKey());
+    }
+
+    @Benchmark
+    public List<Object> loadRow() {
+        return this.loader.loadRow(this.randomKey());
+    }
+
+    @Benchmark
+    public Map<Object, Long> loadColumn() {
+        return this.loader.loadColumn(this.xp);
+    }
+
+    @Benchmark
+    public boolean entryExists() {
+        return this.loader.entryExists(this.randomKey());
+    }
+
+    @Benchmark
+    public void deleteEntry(DeletedRow deletedRow) {
+        this.deleter.deleteEntry(deletedRow.key);
+    }
+
+    /**
+     * Picks the row the next deleteEntry call deletes, and puts back the row the previous call deleted outside of the measurement.
+     */
+    @State(Scope.Thread)
+    public static class DeletedRow {
+
+        private int index = -1;
+        private Object key;
+
+        @Setup(Level.Invocation)
+        public void next(TableIOBenchmark benchmark) {
+            if (this.index != -1) benchmark.saver.saveRow(this.key, BenchmarkDatabases.row(benchmark.table, this.index));
+            this.index = benchmark.randomIndex();
+            this.key = BenchmarkDatabases.key(benchmark.composite, this.index);
+        }
+    }
+}
@@ -33,9 +33,64 @@ public class Column<T> {
         REVERSED_TYPE_MAP_STRING.put("BIGINT", Long.class);
         REVERSED_TYPE_MAP_STRING.put("BOOLEAN", Boolean.class);
         REVERSED_TYPE_MAP_STRING.put("REAL", Float.class);
+        REVERSED_TYPE_MAP_STRING.put("DOUBLE", Double.class);
         REVERSED_TYPE_MAP_STRING.put("TEXT", String.class);
     }
 
+    /**
+     * @return the type of a column declared with the given type name, following SQLite type affinity for unknown names
+     */
+    protected static Class<?> getType(String declaredType) {
+        String typeName = declaredType.trim().toUpperCase(Locale.ROOT);
+        Class<?> type = REVERSED_TYPE_MAP_STRING.get(typeName);
+        if (type != null) return type;
+        if (typeName.contains("INT")) return Long.class;
+        if (typeName.contains("REAL") || typeName.contains("FLOA") || typeName.contains("DOUB")) return Double.class;
+        return String.class;
+    }
+
+    /**
+     * @return the SQLite type affinity of a declared type name: INTEGER, TEXT, BLOB, REAL or NUMERIC
+     */
+    protected static String getAffinity(String declaredType) {
+        String typeName = declaredType == null ? "" : declaredType.toUpperCase(Locale.ROOT);
+        if (typeName.contains("INT")) return "INTEGER";
+        if (typeName.contains("CHAR") || typeName.contains("CLOB") || typeName.contains("TEXT")) return "TEXT";
+        if (typeName.contains("BLOB") || typeName.isBlank()) return "BLOB";
+        if (typeName.contains("REAL") || typeName.contains("FLOA") || typeName.contains("DOUB")) return "REAL";
+        return "NUMERIC";
+    }
+
+    /**
+     * @param definition - default value as SQLite reports it, e.g. 'text' or 10
+     * @return the default value, or null if it is an expression or cannot be read as the given type
+     */
+    protected static Object parseDefaultValue(Class<?> type, String definition) {
+        if (definition == null) return null;
+        String value = definition.trim();
+        try {
+            if (type == String.class) {
+                if (value.length() >= 2 && value.startsWith("'") && value.endsWith("'")) {
+                    return value.substring(1, value.length() - 1).replace("''", "'");
+                }
+                return null;
+            }
+            if (type == Boolean.class) {
+                if (value.equals("1") || value.equalsIgnoreCase("TRUE")) return true;
+                if (value.equals("0") || value.equalsIgnoreCase("FALSE")) return false;
+                return null;
+            }
+            if (type == Integer.class) return Integer.valueOf(value);
+            if (type == Short.class) return Short.valueOf(value);
+            if (type == Long.class) return Long.valueOf(value);
+            if (type == Float.class) return Float.valueOf(value);
+            if (type == Double.class) return Double.valueOf(value);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return null;
+    }
+
     private interface ColumnPropertyDefinition {
         String getDefinition();
     }
@@ -64,7 +119,12 @@ public class Column<T> {
     protected String name;
     protected Set<ColumnProperty> columnProperties = new HashSet<>();
     protected T defaultValue;
+    protected String previousName;
     protected Class<T> type;
+    // Type name the column was declared with in an existing table, kept so discovered tables are not rewritten
+    protected String typeName;
+    // Default as SQLite reports it for an existing table, e.g. CURRENT_TIMESTAMP, which a value of the type cannot hold
+    protected String defaultExpression;
 
     protected Column() {
     }
@@ -89,20 +149,30 @@ public class Column<T> {
             if (definition.isEmpty()) continue;
             sb.append(" ").append(columnProperty.getDefinition());
         }
-        if (defaultValue != null) {
-            sb.append(" DEFAULT ").append(formatDefaultValue(defaultValue));
+        String defaultDefinition = this.getDefaultValueDefinition();
+        if (defaultDefinition != null) {
+            sb.append(" DEFAULT ").append(defaultDefinition);
         }
         return sb.toString();
     }
 
+    /**
+     * @return the default value as written in the column definition, or null if there is none
+     */
+    protected String getDefaultValueDefinition() {
+        if (this.defaultExpression != null) return this.defaultExpression;
+        return defaultValue != null ? formatDefaultValue(defaultValue) : null;
+    }
+
     protected String getColumnTypeName() {
+        if (this.typeName != null) return this.typeName;
         String typeName = TYPE_MAP.get(type);
         return typeName != null ? typeName : "TEXT"; // Default to TEXT if type not found
     }
 
     private String formatDefaultValue(T defaultValue) {
         if (defaultValue instanceof String) {
-            return "'" + defaultValue + "'";
+            return "'" + ((String) defaultValue).replace("'", "''") + "'";
         } else if (defaultValue instanceof Boolean) {
             return (Boolean) defaultValue ? "1" : "0";
         }
@@ -117,11 +187,82 @@ public class Column<T> {
         return defaultValue;
     }
 
+    /**
+     * @return name the column is renamed from, or null
+     */
+    public String getPreviousName() {
+        return previousName;
+    }
+
+    /**
+     * @return condition that the column equals the value, or is NULL if the value is null
+     */
+    public Condition eq(T value) {
+        return value != null ? Condition.compare(this, "=", value) : this.isNull();
+    }
+
+    public Condition ne(T value) {
+        return value != null ? Condition.compare(this, "<>", value) : this.isNotNull();
+    }
+
+    public Condition gt(T value) {
+        return Condition.compare(this, ">", value);
+    }
+
+    public Condition ge(T value) {
+        return Condition.compare(this, ">=", value);
+    }
+
+    public Condition lt(T value) {
+        return Condition.compare(this, "<", value);
+    }
+
+    public Condition le(T value) {
+        return Condition.compare(this, "<=", value);
+    }
+
+    /**
+     * @return condition that the column is between both values, inclusive
+     */
+    public Condition between(T from, T to) {
+        return new Condition(name + " BETWEEN ? AND ?", Arrays.asList(from, to));
+    }
+
+    public Condition in(Collection<T> values) {
+        return Condition.in(this, values);
+    }
+
+    /**
+     * @param pattern - LIKE pattern, % matches any text and _ a single character
+     */
+    public Condition like(String pattern) {
+        return Condition.compare(this, "LIKE", pattern);
+    }
+
+    public Condition isNull() {
+        return new Condition(name + " IS NULL", List.of());
+    }
+
+    public Condition isNotNull() {
+        return new Condition(name + " IS NOT NULL", List.of());
+    }
+
+    public Query.Order asc() {
+        return new Query.Order(this, false);
+    }
+
+    public Query.Order desc() {
+        return new Query.Order(this, true);
+    }
+
     public Builder toBuilder() {
         return new Builder(type)
                 .name(name)
                 .columnProperties(columnProperties)
-                .defaultValue(defaultValue);
+                .defaultValue(defaultValue)
+                .previousName(previousName)
+                .typeName(typeName)
+                .defaultExpression(defaultExpression);
     }
 
     @Override
@@ -129,12 +270,12 @@ public class Column<T> {
         if (this == object) return true;
         if (object == null || getClass() != object.getClass()) return false;
         Column<?> column = (Column<?>) object;
-        return Objects.equals(name, column.name) && Objects.equals(columnProperties, column.columnProperties) && Objects.equals(defaultValue, column.defaultValue) && Objects.equals(type, column.type);
+        return Objects.equals(name, column.name) && Objects.equals(columnProperties, column.columnProperties) && Objects.equals(defaultValue, column.defaultValue) && Objects.equals(defaultExpression, column.defaultExpression) && Objects.equals(type, column.type);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(name, columnProperties, defaultValue, type);
+        return Objects.hash(name, columnProperties, defaultValue, defaultExpression, type);
     }
 
     public static <T> Builder<T> builder(Class<T> type) {
@@ -146,7 +287,10 @@ public class Column<T> {
         private String name;
         private Set<ColumnProperty> columnProperties;
         private T defaultValue;
+        private String previousName;
         private final Class<T> type;
+        private String typeName;
+        private String defaultExpression;
 
         private Builder(Class<T> type) {
             this.type = type;
@@ -159,6 +303,28 @@ public class Column<T> {
 
         public Builder<T> defaultValue(T defaultValue) {
             this.defaultValue = defaultValue;
+            this.defaultExpression = null;
+            return this;
+        }
+
+        /** Renames the column from the given name when the table is updated, instead of adding it as a new column
+         */
+        public Builder<T> previousName(String previousName) {
+            this.previousName = previousName;
+            return this;
+        }
+
+        /** Declares the column with the given type name instead of the default for its type
+         */
+        protected Builder<T> typeName(String typeName) {
+            this.typeName = typeName;
+            return this;
+        }
+
+        /** Declares the default as an SQL expression as SQLite reports it, instead of the default value
+         */
+        protected Builder<T> defaultExpression(String defaultExpression) {
+            this.defaultExpression = defaultExpression;
             return this;
         }
 
@@ -187,6 +353,9 @@ public class Column<T> {
             column.columnProperties = this.columnProperties != null ? this.columnProperties : new HashSet<>();
             column.defaultValue = this.defaultValue;
             column.type = this.type;
+            column.previousName = this.previousName;
+            column.typeName = this.typeName;
+            column.defaultExpression = this.defaultExpression;
             return column;
         }
 
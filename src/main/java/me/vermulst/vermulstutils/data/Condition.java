@@ -0,0 +1,97 @@
+package me.vermulst.vermulstutils.data;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.*;
+
+/**
+ * A typed predicate over columns, created by the comparison methods on {@link Column}.
+ * The values are bound as parameters, so conditions of the same shape share a prepared statement.
+ */
+public class Condition {
+
+    private static final Condition ALWAYS = new Condition("1", List.of());
+    private static final Condition NEVER = new Condition("0", List.of());
+
+    private final String sql;
+    private final List<Object> parameters;
+
+    protected Condition(String sql, List<Object> parameters) {
+        this.sql = sql;
+        this.parameters = parameters;
+    }
+
+    /**
+     * @return a condition every row matches
+     */
+    public static Condition always() {
+        return ALWAYS;
+    }
+
+    /**
+     * @return a condition no row matches
+     */
+    public static Condition never() {
+        return NEVER;
+    }
+
+    public Condition and(Condition condition) {
+        return this.combine("AND", condition);
+    }
+
+    public Condition or(Condition condition) {
+        return this.combine("OR", condition);
+    }
+
+    public Condition not() {
+        return new Condition("NOT (" + this.sql + ")", this.parameters);
+    }
+
+    private Condition combine(String operator, Condition condition) {
+        List<Object> parameters = new ArrayList<>(this.parameters.size() + condition.parameters.size());
+        parameters.addAll(this.parameters);
+        parameters.addAll(condition.parameters);
+        return new Condition("(" + this.sql + ") " + operator + " (" + condition.sql + ")", parameters);
+    }
+
+    protected static Condition compare(Column<?> column, String operator, Object value) {
+        return new Condition(column.getName() + " " + operator + " ?", Collections.singletonList(value));
+    }
+
+    protected static Condition in(Column<?> column, Collection<?> values) {
+        if (values.isEmpty()) return NEVER;
+        if (values.size() > TableIO.MAX_VARIABLE_NUMBER) {
+            throw new IllegalArgumentException("IN condition has more values than a statement can bind.");
+        }
+        String placeholders = "?, ".repeat(values.size() - 1) + "?";
+        return new Condition(column.getName() + " IN (" + placeholders + ")", new ArrayList<>(values));
+    }
+
+    /** Binds the parameters of this condition
+     *
+     * @param index - index of the first placeholder of this condition
+     * @return index of the next placeholder
+     */
+    protected int bind(PreparedStatement statement, int index) throws SQLException {
+        for (Object parameter : this.parameters) {
+            statement.setObject(index++, parameter);
+        }
+        return index;
+    }
+
+    /**
+     * @return the condition with ? for each parameter, without WHERE
+     */
+    public String getSql() {
+        return sql;
+    }
+
+    public List<Object> getParameters() {
+        return parameters;
+    }
+
+    @Override
+    public String toString() {
+        return sql + " " + parameters;
+    }
+}
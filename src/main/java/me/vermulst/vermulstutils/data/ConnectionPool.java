@@ -0,0 +1,177 @@
+package me.vermulst.vermulstutils.data;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * One writer connection and a bounded pool of read only connections.
+ * All connections get the settings of a {@link PerformanceProfile}. Its presets use WAL,
+ * so readers never block on the writer.
+ * <p>
+ * A thread that already holds a reader, e.g. a loader called from the consumer of a stream, is never made to wait for another one:
+ * if the pool is full it gets an extra reader that is closed when released, so nested reads cannot deadlock.
+ */
+public class ConnectionPool implements AutoCloseable {
+
+    private static final System.Logger LOGGER = System.getLogger(ConnectionPool.class.getName());
+
+    public static final int DEFAULT_READ_POOL_SIZE = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    private final String path;
+    private final int readPoolSize;
+    private final int statementCacheSize;
+    private final PerformanceProfile profile;
+    private final Deque<DatabaseConnection> idleReaders = new ArrayDeque<>();
+    // Readers in use and the threads holding them, extra readers are not counted in openReaders
+    private final Map<DatabaseConnection, Thread> heldReaders = new IdentityHashMap<>();
+    private final Map<DatabaseConnection, Boolean> extraReaders = new IdentityHashMap<>();
+    private DatabaseConnection writer;
+    private int openReaders;
+    // Counts the calls of close, so threads waiting for a reader notice the pool was closed
+    private int closeCount;
+    // Set by close until the writer is opened again, readers released in between are closed instead of pooled
+    private boolean closed;
+
+    protected ConnectionPool(String path, int readPoolSize, int statementCacheSize, PerformanceProfile profile) {
+        this.path = path;
+        this.readPoolSize = readPoolSize;
+        this.statementCacheSize = statementCacheSize;
+        this.profile = profile;
+    }
+
+    protected synchronized DatabaseConnection getWriter() {
+        if (this.writer != null && !this.writer.isClosed()) return this.writer;
+        try {
+            Connection connection = DriverManager.getConnection("jdbc:sqlite:" + this.path);
+            this.profile.applyDatabase(connection);
+            this.profile.applyConnection(connection);
+            connection.setAutoCommit(false);
+            this.writer = new DatabaseConnection(connection, this.statementCacheSize, false);
+            this.closed = false;
+            return this.writer;
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to connect to database with path " + this.path, e);
+        }
+    }
+
+    /** Takes a reader from the pool, opening one if the pool is not full yet.
+     * Blocks until a reader is released otherwise, unless the current thread already holds one.
+     *
+     * @throws IllegalStateException if the pool is closed while waiting
+     */
+    protected DatabaseConnection acquireReader() {
+        boolean extra;
+        synchronized (this) {
+            int closeCount = this.closeCount;
+            while (true) {
+                DatabaseConnection reader;
+                while ((reader = this.idleReaders.poll()) != null) {
+                    if (!reader.isClosed()) {
+                        this.heldReaders.put(reader, Thread.currentThread());
+                        return reader;
+                    }
+                    this.openReaders--;
+                }
+                if (this.closeCount != closeCount) {
+                    throw new IllegalStateException("Connection pool of database with path " + this.path + " was closed while waiting for a read connection");
+                }
+                extra = this.openReaders >= this.readPoolSize;
+                if (!extra) {
+                    this.openReaders++;
+                    break;
+                }
+                if (this.heldReaders.containsValue(Thread.currentThread())) break;
+                try {
+                    this.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Interrupted while waiting for a read connection", e);
+                }
+            }
+        }
+        DatabaseConnection reader;
+        try {
+            reader = this.openReader();
+        } catch (RuntimeException e) {
+            if (!extra) this.discardReader();
+            throw e;
+        }
+        synchronized (this) {
+            this.heldReaders.put(reader, Thread.currentThread());
+            if (extra) this.extraReaders.put(reader, Boolean.TRUE);
+        }
+        return reader;
+    }
+
+    /** Returns the reader to the pool, or closes it if it is an extra reader or the pool was closed while it was in use
+     */
+    protected synchronized void releaseReader(DatabaseConnection reader) {
+        this.heldReaders.remove(reader);
+        boolean extra = this.extraReaders.remove(reader) != null;
+        if ((this.closed || extra) && !reader.isClosed()) {
+            try {
+                reader.close();
+            } catch (SQLException e) {
+                LOGGER.log(System.Logger.Level.WARNING, "Failed closing read connection to database with path " + this.path, e);
+            }
+        }
+        if (extra) return;
+        if (reader.isClosed()) {
+            this.discardReader();
+            return;
+        }
+        this.idleReaders.offer(reader);
+        this.notifyAll();
+    }
+
+    private synchronized void discardReader() {
+        this.openReaders--;
+        this.notifyAll();
+    }
+
+    private DatabaseConnection openReader() {
+        // The writer sets the journal mode of the database file before any reader opens it
+        this.getWriter();
+        try {
+            Connection connection = DriverManager.getConnection("jdbc:sqlite:" + this.path);
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("PRAGMA query_only = ON");
+            }
+            this.profile.applyConnection(connection);
+            return new DatabaseConnection(connection, this.statementCacheSize, true);
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to open read connection to database with path " + this.path, e);
+        }
+    }
+
+    public int getReadPoolSize() {
+        return readPoolSize;
+    }
+
+    public PerformanceProfile getProfile() {
+        return profile;
+    }
+
+    @Override
+    public synchronized void close() {
+        this.closed = true;
+        this.closeCount++;
+        this.notifyAll();
+        try {
+            if (this.writer != null) this.writer.close();
+            DatabaseConnection reader;
+            while ((reader = this.idleReaders.poll()) != null) {
+                reader.close();
+                this.openReaders--;
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed closing connections to database with path " + this.path, e);
+        }
+    }
+}
@@ -3,58 +3,83 @@ package me.vermulst.vermulstutils.data;
 
 import java.io.File;
 import java.sql.*;
+import java.time.Duration;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 import java.util.*;
-import java.util.stream.Collectors;
 
 public class Database {
 
     private String path;
-    private Connection connection;
-    private final Set<Table<?>> tables = new HashSet<>();
+    private ConnectionPool pool;
+    private int readPoolSize = ConnectionPool.DEFAULT_READ_POOL_SIZE;
+    private int statementCacheSize = StatementCache.DEFAULT_CAPACITY;
+    private PerformanceProfile profile = PerformanceProfile.BALANCED;
+    private WriteBehindQueue writeBehindQueue;
+    private Executor asyncExecutor;
+    private KeyedExecutor keyedExecutor;
+    private Metrics metrics = new Metrics("database");
+    private SlowStatementLog slowStatementLog;
+    // Lower case table name -> table
+    private final Map<String, Table<?>> tables = new HashMap<>();
 
     protected Database() {
     }
 
     protected void path(String path) {
         this.path = path;
+        this.metrics = new Metrics(new File(path).getName());
     }
 
+    protected void statementCacheSize(int statementCacheSize) {
+        this.statementCacheSize = statementCacheSize;
+    }
+
+    protected void readPoolSize(int readPoolSize) {
+        this.readPoolSize = readPoolSize;
+    }
+
+    protected void profile(PerformanceProfile profile) {
+        this.profile = profile;
+    }
+
+    protected void asyncExecutor(Executor asyncExecutor) {
+        this.asyncExecutor = asyncExecutor;
+    }
+
+    protected void writeBehind(int capacity, Duration flushInterval, int flushSize, WriteBehindQueue.Listener listener) {
+        this.writeBehindQueue = new WriteBehindQueue(this, capacity, flushInterval, flushSize, listener);
+    }
+
+    /** Creates or updates every table in its own transactions, so a table that needs a migration does not hold the writer throughout
+     */
     protected void tables(Set<Table.Builder> tableBuilders) {
-        try (Connection connection = this.getConnection()) {
-            for (Table.Builder builder : tableBuilders) {
-                Table table = builder.build(connection);
-                this.addTable(table);
-            }
-            connection.commit();
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
+        for (Table.Builder builder : tableBuilders) {
+            Table<?> table = builder.build(this.getWriter());
+            this.addTable(table);
         }
     }
 
+    /** Brings the table in the database in line with the given table.
+     * Changes SQLite cannot make with ALTER TABLE copy the table in chunks, with writes to it allowed in between.
+     */
     public void updateTable(Table table) {
-        try (Connection connection = this.getConnection()) {
-            table.createOrUpdate(connection);
-            connection.commit();
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        }
+        table.createOrUpdate(this.getWriter());
     }
 
+    /** Adds the table, replacing a table with the same name ignoring case
+     */
     public void addTable(Table<?> table) {
-        Set<String> tableNames = this.getTableNames();
-        if (tableNames.contains(table.getName())) {
-            this.tables.removeIf(table1 -> table1.getName().equalsIgnoreCase(table.getName()));
-        }
-        this.tables.add(table);
+        if (table.getCache() != null) table.getCache().bind(this);
+        this.tables.put(table.getName().toLowerCase(Locale.ROOT), table);
     }
 
+    @SuppressWarnings("unchecked")
     public <PK> Table<PK> getTable(Class<PK> tableType, String name) {
-        Optional<Table<?>> tableOptional = this.tables.stream()
-                .filter(table -> name.equalsIgnoreCase(table.getName()))
-                .findFirst();
+        Table<?> table = this.tables.get(name.toLowerCase(Locale.ROOT));
         // Perform type checking or casting based on tableType
-        if (tableOptional.isPresent() && tableType.equals(tableOptional.get().getType())) {
-            return (Table<PK>) tableOptional.get();
+        if (table != null && tableType.equals(table.getType())) {
+            return (Table<PK>) table;
         }
         return null;
     }
@@ -65,8 +90,11 @@ public class Database {
     }
 
     public void dropTable(String name) {
-        try (Connection connection = this.getConnection()) {
-            this.dropTable(name, connection);
+        try {
+            this.getWriter().execute(connection -> {
+                this.dropTable(name, connection.getConnection());
+                return null;
+            });
         } catch (SQLException e) {
             throw new RuntimeException("Failed to drop table: " + name + " (might not exist)", e);
         }
@@ -81,27 +109,46 @@ public class Database {
     }
 
     public void dropAllTables() {
-        try (Connection connection = this.getConnection()) {
-            for (Table<?> table : this.tables) {
-                this.dropTable(table.name, connection);
-            }
+        try {
+            this.getWriter().execute(connection -> {
+                for (Table<?> table : this.tables.values()) {
+                    this.dropTable(table.name, connection.getConnection());
+                }
+                return null;
+            });
         } catch (SQLException e) {
             throw new RuntimeException("Failed to drop all tables", e);
         }
     }
 
+    /** Closes the writer and all idle readers, they are reopened on next use
+     */
     public void closeConnection() {
-        try {
-            if (this.connection == null || this.connection.isClosed()) return;
-            //this.connection.close();
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
+        this.flush();
+        if (this.pool == null) return;
+        this.pool.close();
+    }
+
+    /** Writes the dirty rows of all table caches, then blocks until all writes queued in write-behind mode are written
+     */
+    public void flush() {
+        for (Table<?> table : this.tables.values()) {
+            if (table.getCache() != null) table.getCache().flush();
         }
+        if (this.writeBehindQueue == null) return;
+        this.writeBehindQueue.flush();
     }
 
     public void delete() {
-        this.closeConnection();
+        this.metrics.unregisterMBeans();
+        if (this.writeBehindQueue != null) {
+            this.writeBehindQueue.shutdown();
+            this.writeBehindQueue = null;
+        }
         this.dropAllTables();
+        this.closeConnection();
+        new File(this.path + "-wal").delete();
+        new File(this.path + "-shm").delete();
         File file = new File(this.path);
         if (file.exists()) {
             if (file.delete()) {
@@ -114,24 +161,93 @@ public class Database {
         }
     }
 
+    /**
+     * @return the writer connection, shared by all savers and deleters
+     */
     public Connection getConnection() {
+        return this.getWriter().getConnection();
+    }
+
+    /**
+     * @return the prepared statement cache of the connection returned by {@link #getConnection()}
+     */
+    public StatementCache getStatementCache() {
+        return this.getWriter().getStatementCache();
+    }
+
+    /**
+     * @return the write-behind queue, or null if writes are synchronous
+     */
+    public WriteBehindQueue getWriteBehindQueue() {
+        return writeBehindQueue;
+    }
+
+    /**
+     * @return the executor async loader, saver and deleter calls run on, virtual threads unless configured
+     */
+    public synchronized KeyedExecutor getAsyncExecutor() {
+        if (this.keyedExecutor == null) {
+            Executor executor = this.asyncExecutor != null ? this.asyncExecutor : Executors.newVirtualThreadPerTaskExecutor();
+            this.keyedExecutor = new KeyedExecutor(executor);
+        }
+        return this.keyedExecutor;
+    }
+
+    public PerformanceProfile getProfile() {
+        return profile;
+    }
+
+    /**
+     * @return the log of slow statements, or null if it is not enabled
+     */
+    public SlowStatementLog getSlowStatementLog() {
+        return slowStatementLog;
+    }
+
+    protected void slowStatementLog(SlowStatementLog slowStatementLog) {
+        this.slowStatementLog = slowStatementLog;
+    }
+
+    /**
+     * @return per table and per operation metrics, disabled unless enabled on the builder or with {@link Metrics#setEnabled(boolean)}
+     */
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return pragma name -> value as SQLite reports it on the writer, which may differ from the profile
+     * (e.g. page_size of an existing database, or journal_mode on an in-memory database)
+     */
+    public Map<String, String> getEffectivePragmas() {
         try {
-            if (this.connection != null && !this.connection.isClosed()) return this.connection;
-            this.connection = DriverManager.getConnection("jdbc:sqlite:" + path);
-            this.connection.setAutoCommit(false);
-            return this.connection;
+            return this.getWriter().execute(connection -> PerformanceProfile.readEffective(connection.getConnection()));
         } catch (SQLException e) {
-            throw new RuntimeException("Failed to connect to database with path " + path, e);
+            throw new RuntimeException("Failed reading pragmas of database with path " + this.path, e);
         }
     }
 
+    protected DatabaseConnection getWriter() {
+        return this.getPool().getWriter();
+    }
 
-    public Set<Table<?>> getTables() {
-        return tables;
+    protected DatabaseConnection acquireReader() {
+        return this.getPool().acquireReader();
     }
 
-    private Set<String> getTableNames() {
-        return this.tables.stream().map(Table::getName).collect(Collectors.toUnmodifiableSet());
+    protected void releaseReader(DatabaseConnection reader) {
+        this.getPool().releaseReader(reader);
+    }
+
+    private synchronized ConnectionPool getPool() {
+        if (this.pool == null) {
+            this.pool = new ConnectionPool(this.path, this.readPoolSize, this.statementCacheSize, this.profile);
+        }
+        return this.pool;
+    }
+
+    public Set<Table<?>> getTables() {
+        return new HashSet<>(this.tables.values());
     }
 
     @Override
@@ -144,7 +260,7 @@ public class Database {
 
     @Override
     public int hashCode() {
-        return Objects.hash(path, connection, tables);
+        return Objects.hash(path, tables);
     }
 
     public static Builder builder() {
@@ -154,6 +270,17 @@ public class Database {
     public static class Builder {
 
         private String path;
+        private int statementCacheSize = StatementCache.DEFAULT_CAPACITY;
+        private int readPoolSize = ConnectionPool.DEFAULT_READ_POOL_SIZE;
+        private PerformanceProfile profile = PerformanceProfile.BALANCED;
+        private int writeBehindCapacity;
+        private Duration writeBehindInterval;
+        private int writeBehindFlushSize;
+        private WriteBehindQueue.Listener writeBehindListener;
+        private Executor asyncExecutor;
+        private boolean metrics;
+        private boolean metricsMBeans;
+        private SlowStatementLog slowStatementLog;
         private final Set<Table.Builder> builders = new HashSet<>();
         private boolean addExistingTables = true;
         private Set<Table.Builder> addAndOverride;
@@ -169,6 +296,82 @@ public class Database {
             return this;
         }
 
+        public Builder statementCacheSize(int statementCacheSize) {
+            if (statementCacheSize < 1) throw new IllegalArgumentException("Statement cache size must be at least 1.");
+            this.statementCacheSize = statementCacheSize;
+            return this;
+        }
+
+        /** Amount of read only connections loaders can use concurrently.
+         * Loads from the consumer of a stream get an extra connection while the pool is full.
+         */
+        public Builder readPoolSize(int readPoolSize) {
+            if (readPoolSize < 1) throw new IllegalArgumentException("Read pool size must be at least 1.");
+            this.readPoolSize = readPoolSize;
+            return this;
+        }
+
+        /** PRAGMA settings for every connection, defaults to {@link PerformanceProfile#BALANCED}
+         */
+        public Builder performanceProfile(PerformanceProfile profile) {
+            this.profile = Objects.requireNonNull(profile);
+            return this;
+        }
+
+        /** Executor for the async loader, saver and deleter methods, defaults to one virtual thread per task
+         */
+        public Builder asyncExecutor(Executor asyncExecutor) {
+            this.asyncExecutor = Objects.requireNonNull(asyncExecutor);
+            return this;
+        }
+
+        /** Makes savers and deleters queue their writes instead of writing on the caller's thread.
+         * Queued writes are coalesced per row and written in one transaction per flush.
+         *
+         * @param capacity - maximum amount of rows with queued writes, writing to more rows blocks unless the thread holds the writer
+         * @param flushInterval - maximum time between flushes
+         * @param flushSize - amount of queued writes that triggers an early flush
+         */
+        public Builder writeBehind(int capacity, Duration flushInterval, int flushSize) {
+            return this.writeBehind(capacity, flushInterval, flushSize, null);
+        }
+
+        /**
+         * @param listener - receives queued rows that are dropped because writing them failed, null to log them
+         */
+        public Builder writeBehind(int capacity, Duration flushInterval, int flushSize, WriteBehindQueue.Listener listener) {
+            if (capacity < 1 || flushSize < 1) throw new IllegalArgumentException("Capacity and flush size must be at least 1.");
+            this.writeBehindCapacity = capacity;
+            this.writeBehindInterval = Objects.requireNonNull(flushInterval);
+            this.writeBehindFlushSize = flushSize;
+            this.writeBehindListener = listener;
+            return this;
+        }
+
+        /** Records per table and per operation metrics, see {@link Database#getMetrics()}
+         *
+         * @param registerMBeans - also register every operation as an MBean on the platform MBean server
+         */
+        public Builder metrics(boolean registerMBeans) {
+            this.metrics = true;
+            this.metricsMBeans = registerMBeans;
+            return this;
+        }
+
+        /** Logs statements of operations slower than the threshold with their EXPLAIN QUERY PLAN, see {@link SlowStatementLog}
+         */
+        public Builder slowStatementLog(Duration threshold) {
+            return this.slowStatementLog(threshold, null);
+        }
+
+        /**
+         * @param listener - receives the slow statements, null to log them
+         */
+        public Builder slowStatementLog(Duration threshold, SlowStatementLog.Listener listener) {
+            this.slowStatementLog = new SlowStatementLog(Objects.requireNonNull(threshold), listener);
+            return this;
+        }
+
         public Builder addTablesIfNotExists(Table.Builder... tableBuilders) {
             this.addIfNotExists = Set.of(tableBuilders);
             return this;
@@ -214,62 +417,40 @@ public class Database {
 
         private Builder addExistingTables(Database database) {
             if (!addExistingTables) return this;
-            try (Connection connection = database.getConnection()) {
-                List<String> tableNames = new ArrayList<>();
-                DatabaseMetaData metaData = connection.getMetaData();
-                ResultSet rs = metaData.getTables(null, null, "%", new String[] { "TABLE" });
-                while (rs.next()) {
-                    String tableName = rs.getString("TABLE_NAME");
-                    tableNames.add(tableName);
-                }
-                rs.close();
-                for (String tableName : tableNames) {
-                    Class<?> tableClass = this.determinePrimaryKeyClass(connection, tableName);
-                    Table.Builder tableBuilder = Table.builder(tableClass)
-                            .name(tableName)
-                            .findColumns(connection);
-                    this.builders.add(tableBuilder);
-                }
+            try {
+                database.getWriter().execute(databaseConnection -> {
+                    this.addExistingTables(databaseConnection.getConnection());
+                    return null;
+                });
             } catch (SQLException e) {
                 throw new RuntimeException("Failed adding existing tables", e);
             }
             return this;
         }
 
-        private Class<?> determinePrimaryKeyClass(Connection connection, String tableName) throws SQLException {
-            DatabaseMetaData metaData = connection.getMetaData();
-            ResultSet rs = metaData.getPrimaryKeys(null, null, tableName);
-            List<Class<?>> primaryKeyTypes = new ArrayList<>();
-            while (rs.next()) {
-                String columnName = rs.getString("COLUMN_NAME");
-                ResultSet columnRs = metaData.getColumns(null, null, tableName, columnName);
-                if (columnRs.next()) {
-                    int sqlType = columnRs.getInt("DATA_TYPE");
-                    Class<?> javaType = Column.REVERSED_TYPE_MAP.getOrDefault(sqlType, Object.class); // Map SQL type to Java type
-                    primaryKeyTypes.add(javaType);
-                }
-                columnRs.close();
-            }
-            rs.close();
-            if (primaryKeyTypes.size() == 1) {
-                return primaryKeyTypes.get(0); // Single primary key, return the type
-            } else if (primaryKeyTypes.size() > 1) {
-                return CompositeKey.class; // Composite key, return CompositeKey class
-            } else {
-                throw new SQLException("No primary key found for table: " + tableName);
-            }
+        private void addExistingTables(Connection connection) throws SQLException {
+            this.builders.addAll(SchemaDiscovery.discover(connection));
         }
 
 
         public Database build() {
             Database database = new Database();
             database.path(this.path);
+            database.statementCacheSize(this.statementCacheSize);
+            database.readPoolSize(this.readPoolSize);
+            database.profile(this.profile);
+            database.asyncExecutor(this.asyncExecutor);
+            database.getMetrics().setEnabled(this.metrics);
+            database.slowStatementLog(this.slowStatementLog);
+            if (this.metricsMBeans) database.getMetrics().registerMBeans();
             database.closeConnection();
             this.addExistingTables(database)
                     .addTablesIfNotExists()
                     .addAndOverride();
-            System.out.println(this.builders.size());
             database.tables(this.builders);
+            if (this.writeBehindInterval != null) {
+                database.writeBehind(this.writeBehindCapacity, this.writeBehindInterval, this.writeBehindFlushSize, this.writeBehindListener);
+            }
             return database;
         }
 
@@ -0,0 +1,110 @@
+package me.vermulst.vermulstutils.data;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * A connection handed out by the {@link ConnectionPool}, together with its statement cache.
+ * Work on a connection is serialized through {@link #execute(SQLAction)}.
+ */
+public class DatabaseConnection implements AutoCloseable {
+
+    private final Connection connection;
+    private final StatementCache statements;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final boolean readOnly;
+    // SQL of the statements prepared by the running action, only kept while a SlowStatementLog tracks it
+    private List<String> trackedStatements;
+
+    protected DatabaseConnection(Connection connection, int statementCacheSize, boolean readOnly) {
+        this.connection = connection;
+        this.statements = new StatementCache(connection, statementCacheSize);
+        this.readOnly = readOnly;
+    }
+
+    /** Runs the action while holding this connection.
+     * On the writer the outermost action is committed, or rolled back if it fails.
+     */
+    protected <R> R execute(SQLAction<R> action) throws SQLException {
+        this.lock.lock();
+        try {
+            boolean outermost = this.lock.getHoldCount() == 1;
+            try {
+                R result = action.run(this);
+                if (outermost && !this.readOnly) this.connection.commit();
+                return result;
+            } catch (SQLException | RuntimeException e) {
+                if (outermost && !this.readOnly) this.connection.rollback();
+                throw e;
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    protected PreparedStatement prepare(String table, String operation, List<String> columns, Supplier<String> sql) throws SQLException {
+        if (this.trackedStatements == null) return this.statements.prepare(table, operation, columns, sql);
+        StatementCache.Entry entry = this.statements.prepareEntry(table, operation, columns, sql);
+        this.trackedStatements.add(entry.sql());
+        return entry.statement();
+    }
+
+    /** Starts collecting the SQL of prepared statements into the given list, only call while holding this connection
+     *
+     * @param statements - list to collect into, null to stop collecting
+     * @return the list statements were collected into before
+     */
+    protected List<String> trackStatements(List<String> statements) {
+        List<String> previous = this.trackedStatements;
+        this.trackedStatements = statements;
+        return previous;
+    }
+
+    public Connection getConnection() {
+        return connection;
+    }
+
+    public StatementCache getStatementCache() {
+        return statements;
+    }
+
+    /**
+     * @return true if the current thread is running an action on this connection
+     */
+    protected boolean isHeldByCurrentThread() {
+        return this.lock.isHeldByCurrentThread();
+    }
+
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    public boolean isClosed() {
+        try {
+            return this.connection.isClosed();
+        } catch (SQLException e) {
+            return true;
+        }
+    }
+
+    @Override
+    public void close() throws SQLException {
+        this.lock.lock();
+        try {
+            if (this.connection.isClosed()) return;
+            this.statements.close();
+            if (!this.readOnly) this.connection.commit();
+            this.connection.close();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    public interface SQLAction<R> {
+        R run(DatabaseConnection connection) throws SQLException;
+    }
+}
@@ -0,0 +1,124 @@
+package me.vermulst.vermulstutils.data;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A secondary index declared on a table, created next to the implicit primary key and unique indexes.
+ */
+public class Index {
+
+    private static final Pattern WHERE_PATTERN = Pattern.compile("\\)\\s+WHERE\\s+(.+)$", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    private final String name;
+    private final List<String> columnNames;
+    private final boolean unique;
+    private final String where;
+
+    /**
+     * @param where - condition of a partial index, null to index all rows
+     */
+    public Index(String name, List<String> columnNames, boolean unique, String where) {
+        if (columnNames.isEmpty()) throw new IllegalArgumentException("Index " + name + " has no columns.");
+        this.name = name;
+        this.columnNames = List.copyOf(columnNames);
+        this.unique = unique;
+        this.where = where == null || where.isBlank() ? null : where.trim();
+    }
+
+    public String getStatement(String tableName) {
+        StringBuilder builder = new StringBuilder("CREATE ");
+        if (this.unique) builder.append("UNIQUE ");
+        builder.append("INDEX ").append(this.name)
+                .append(" ON ").append(tableName)
+                .append(" (").append(String.join(", ", this.columnNames)).append(")");
+        if (this.where != null) builder.append(" WHERE ").append(this.where);
+        return builder.toString();
+    }
+
+    /**
+     * @return the indexes created with CREATE INDEX on the table, leaving out the ones of primary keys and unique constraints
+     */
+    protected static List<Index> read(Connection connection, String tableName) throws SQLException {
+        List<String> names = new ArrayList<>();
+        Map<String, Boolean> uniques = new HashMap<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("PRAGMA index_list(" + tableName + ")")) {
+            while (resultSet.next()) {
+                if (!"c".equals(resultSet.getString("origin"))) continue;
+                String name = resultSet.getString("name");
+                names.add(name);
+                uniques.put(name, resultSet.getInt("unique") == 1);
+            }
+        }
+        List<Index> indexes = new ArrayList<>(names.size());
+        for (String name : names) {
+            List<String> columnNames = new ArrayList<>();
+            try (Statement statement = connection.createStatement();
+                 ResultSet resultSet = statement.executeQuery("PRAGMA index_info(" + name + ")")) {
+                while (resultSet.next()) {
+                    columnNames.add(resultSet.getString("name"));
+                }
+            }
+            indexes.add(new Index(name, columnNames, uniques.get(name), readWhere(connection, name)));
+        }
+        return indexes;
+    }
+
+    private static String readWhere(Connection connection, String name) throws SQLException {
+        try (PreparedStatement pstmt = connection.prepareStatement("SELECT sql FROM sqlite_master WHERE type = 'index' AND name = ?")) {
+            pstmt.setString(1, name);
+            try (ResultSet resultSet = pstmt.executeQuery()) {
+                return resultSet.next() ? parseWhere(resultSet.getString(1)) : null;
+            }
+        }
+    }
+
+    /**
+     * @return condition of the partial index created by the given statement, or null
+     */
+    protected static String parseWhere(String sql) {
+        if (sql == null) return null;
+        Matcher matcher = WHERE_PATTERN.matcher(sql);
+        return matcher.find() ? matcher.group(1) : null;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public List<String> getColumnNames() {
+        return columnNames;
+    }
+
+    public boolean isUnique() {
+        return unique;
+    }
+
+    /**
+     * @return condition of a partial index, or null
+     */
+    public String getWhere() {
+        return where;
+    }
+
+    @Override
+    public boolean equals(Object object) {
+        if (this == object) return true;
+        if (object == null || getClass() != object.getClass()) return false;
+        Index index = (Index) object;
+        return unique == index.unique && name.equalsIgnoreCase(index.name)
+                && columnNames.equals(index.columnNames) && Objects.equals(where, index.where);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(name.toLowerCase(Locale.ROOT), columnNames, unique, where);
+    }
+}
@@ -0,0 +1,70 @@
+package me.vermulst.vermulstutils.data;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+/**
+ * Runs tasks asynchronously, one at a time per key and in submission order.
+ * Tasks for different keys run concurrently on the underlying executor.
+ */
+public class KeyedExecutor {
+
+    private final Executor executor;
+    private final Map<Object, CompletableFuture<?>> tails = new HashMap<>();
+
+    protected KeyedExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /** Runs the task after all earlier tasks with an equal key have completed
+     */
+    public <R> CompletableFuture<R> submit(Object key, Supplier<R> task) {
+        return this.submit(List.of(key), task);
+    }
+
+    /** Runs the task after all earlier tasks with any of the keys have completed, and before later tasks with any of them
+     */
+    public <R> CompletableFuture<R> submit(Collection<?> keys, Supplier<R> task) {
+        Set<Object> taskKeys = new LinkedHashSet<>(keys);
+        synchronized (this.tails) {
+            List<CompletableFuture<?>> previous = taskKeys.stream()
+                    .map(this.tails::get)
+                    .filter(Objects::nonNull)
+                    .distinct()
+                    .<CompletableFuture<?>>map(tail -> tail.handle((result, throwable) -> null))
+                    .toList();
+            CompletableFuture<R> future = previous.isEmpty()
+                    ? CompletableFuture.supplyAsync(task, this.executor)
+                    : CompletableFuture.allOf(previous.toArray(new CompletableFuture<?>[0])).thenApplyAsync(ignored -> task.get(), this.executor);
+            for (Object key : taskKeys) {
+                this.tails.put(key, future);
+            }
+            future.whenComplete((result, throwable) -> {
+                synchronized (this.tails) {
+                    for (Object key : taskKeys) {
+                        this.tails.remove(key, future);
+                    }
+                }
+            });
+            return future;
+        }
+    }
+
+    /** Runs the task without ordering it against other tasks
+     */
+    public <R> CompletableFuture<R> submit(Supplier<R> task) {
+        return CompletableFuture.supplyAsync(task, this.executor);
+    }
+
+    public Executor getExecutor() {
+        return executor;
+    }
+}
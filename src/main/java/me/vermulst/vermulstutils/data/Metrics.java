@@ -0,0 +1,137 @@
+package me.vermulst.vermulstutils.data;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Per table and per operation counters and latency histograms of a database, recorded by loaders, savers, deleters and caches.
+ * Disabled metrics cost a single volatile read per operation, the clock is not read.
+ * When MBeans are enabled, every operation is registered as an {@link OperationMetricsMBean} the first time it is recorded.
+ */
+public class Metrics {
+
+    private static final System.Logger LOGGER = System.getLogger(Metrics.class.getName());
+
+    public static final String JMX_DOMAIN = "me.vermulst.vermulstutils.data";
+    /** Table name of operations that span tables, like a flush of the write-behind queue
+     */
+    public static final String ALL_TABLES = "*";
+
+    private final String databaseName;
+    private volatile boolean enabled;
+    private volatile boolean registerMBeans;
+    private final Map<Key, OperationMetrics> operations = new ConcurrentHashMap<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final Set<ObjectName> registered = ConcurrentHashMap.newKeySet();
+
+    protected Metrics(String databaseName) {
+        this.databaseName = databaseName;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /** Registers the operations recorded so far and all later ones as MBeans
+     */
+    protected synchronized void registerMBeans() {
+        this.registerMBeans = true;
+        for (OperationMetrics metrics : this.operations.values()) {
+            this.register(metrics);
+        }
+    }
+
+    /** Removes the MBeans of this database from the platform MBean server
+     */
+    public synchronized void unregisterMBeans() {
+        this.registerMBeans = false;
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName name : this.registered) {
+            try {
+                if (server.isRegistered(name)) server.unregisterMBean(name);
+            } catch (JMException e) {
+                LOGGER.log(System.Logger.Level.WARNING, "Failed unregistering MBean " + name, e);
+            }
+        }
+        this.registered.clear();
+    }
+
+    public void addListener(Listener listener) {
+        this.listeners.add(Objects.requireNonNull(listener));
+    }
+
+    public void removeListener(Listener listener) {
+        this.listeners.remove(listener);
+    }
+
+    /**
+     * @param rows - rows read, written or deleted
+     */
+    protected void record(String table, String operation, long nanos, long rows, boolean failed) {
+        if (!this.enabled) return;
+        this.get(table, operation).record(nanos, rows, failed);
+        for (Listener listener : this.listeners) {
+            listener.onOperation(table, operation, nanos, rows, failed);
+        }
+    }
+
+    /**
+     * @return the metrics of the operation on the table, created if it was not recorded yet
+     */
+    public OperationMetrics get(String table, String operation) {
+        OperationMetrics metrics = this.operations.get(new Key(table, operation));
+        if (metrics != null) return metrics;
+        return this.operations.computeIfAbsent(new Key(table, operation), key -> {
+            OperationMetrics created = new OperationMetrics(table, operation);
+            if (this.registerMBeans) this.register(created);
+            return created;
+        });
+    }
+
+    /**
+     * @return metrics of all operations recorded so far
+     */
+    public Collection<OperationMetrics> getOperations() {
+        return Collections.unmodifiableCollection(this.operations.values());
+    }
+
+    public void reset() {
+        for (OperationMetrics metrics : this.operations.values()) {
+            metrics.reset();
+        }
+    }
+
+    private void register(OperationMetrics metrics) {
+        try {
+            ObjectName name = new ObjectName(JMX_DOMAIN + ":type=Operation,database=" + ObjectName.quote(this.databaseName) +
+                    ",table=" + ObjectName.quote(metrics.getTable()) + ",operation=" + ObjectName.quote(metrics.getOperation()));
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(name)) server.unregisterMBean(name);
+            server.registerMBean(metrics, name);
+            this.registered.add(name);
+        } catch (JMException e) {
+            LOGGER.log(System.Logger.Level.WARNING, "Failed registering MBean for " + metrics.getTable() + "." + metrics.getOperation(), e);
+        }
+    }
+
+    public interface Listener {
+        /** Called on the thread that ran the operation, so it should return quickly
+         *
+         * @param nanos - time the operation took including waiting for a connection, for streams the time they were open
+         * @param rows - rows read, written or deleted
+         */
+        void onOperation(String table, String operation, long nanos, long rows, boolean failed);
+    }
+
+    private record Key(String table, String operation) {
+    }
+}
@@ -0,0 +1,105 @@
+package me.vermulst.vermulstutils.data;
+
+import java.util.Arrays;
+import java.util.function.ObjDoubleConsumer;
+
+/**
+ * Open addressing map from objects to primitive doubles, so column values are stored without boxing.
+ * Uses linear probing and keeps the table at most half full.
+ */
+public class ObjectDoubleMap<K> {
+
+    private Object[] keys;
+    private double[] values;
+    private int size;
+
+    public ObjectDoubleMap() {
+        this(16);
+    }
+
+    public ObjectDoubleMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(8, expectedSize * 2 - 1)) << 1;
+        this.keys = new Object[capacity];
+        this.values = new double[capacity];
+    }
+
+    public void put(K key, double value) {
+        if (key == null) throw new NullPointerException("Keys can not be null.");
+        int index = this.indexOf(key);
+        if (this.keys[index] == null) {
+            if ((this.size + 1) * 2 > this.keys.length) {
+                this.resize();
+                index = this.indexOf(key);
+            }
+            this.keys[index] = key;
+            this.size++;
+        }
+        this.values[index] = value;
+    }
+
+    public double get(K key) {
+        return this.getOrDefault(key, 0);
+    }
+
+    public double getOrDefault(K key, double defaultValue) {
+        int index = this.indexOf(key);
+        return this.keys[index] == null ? defaultValue : this.values[index];
+    }
+
+    public boolean containsKey(K key) {
+        return this.keys[this.indexOf(key)] != null;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public void forEach(ObjDoubleConsumer<? super K> consumer) {
+        for (int i = 0; i < this.keys.length; i++) {
+            if (this.keys[i] != null) consumer.accept((K) this.keys[i], this.values[i]);
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(this.keys, null);
+        this.size = 0;
+    }
+
+    private int indexOf(Object key) {
+        int mask = this.keys.length - 1;
+        int hash = key.hashCode() * 0x9E3779B9;
+        int index = (hash ^ (hash >>> 16)) & mask;
+        while (this.keys[index] != null && !this.keys[index].equals(key)) {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    private void resize() {
+        Object[] oldKeys = this.keys;
+        double[] oldValues = this.values;
+        this.keys = new Object[oldKeys.length * 2];
+        this.values = new double[oldKeys.length * 2];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == null) continue;
+            int index = this.indexOf(oldKeys[i]);
+            this.keys[index] = oldKeys[i];
+            this.values[index] = oldValues[i];
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("{");
+        this.forEach((key, value) -> {
+            if (builder.length() > 1) builder.append(", ");
+            builder.append(key).append("=").append(value);
+        });
+        return builder.append("}").toString();
+    }
+}
@@ -0,0 +1,104 @@
+package me.vermulst.vermulstutils.data;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latencies of one operation, e.g. "loadRow" or "saveRows", on one table.
+ */
+public class OperationMetrics implements OperationMetricsMBean {
+
+    private static final double NANOS_PER_MILLI = 1_000_000d;
+
+    private final String table;
+    private final String operation;
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder rows = new LongAdder();
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    protected OperationMetrics(String table, String operation) {
+        this.table = table;
+        this.operation = operation;
+    }
+
+    protected void record(long nanos, long rows, boolean failed) {
+        this.calls.increment();
+        if (failed) this.failures.increment();
+        this.rows.add(rows);
+        this.latency.record(nanos);
+    }
+
+    @Override
+    public String getTable() {
+        return table;
+    }
+
+    @Override
+    public String getOperation() {
+        return operation;
+    }
+
+    @Override
+    public long getCalls() {
+        return this.calls.sum();
+    }
+
+    @Override
+    public long getFailures() {
+        return this.failures.sum();
+    }
+
+    /**
+     * @return rows read, written or deleted by the operation
+     */
+    @Override
+    public long getRows() {
+        return this.rows.sum();
+    }
+
+    /**
+     * @return latency in nanoseconds
+     */
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    @Override
+    public double getMeanLatencyMillis() {
+        return this.latency.getMean() / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getMaxLatencyMillis() {
+        return this.latency.getMax() / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getP50LatencyMillis() {
+        return this.latency.getValueAtPercentile(50) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getP99LatencyMillis() {
+        return this.latency.getValueAtPercentile(99) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getP999LatencyMillis() {
+        return this.latency.getValueAtPercentile(99.9) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public void reset() {
+        this.calls.reset();
+        this.failures.reset();
+        this.rows.reset();
+        this.latency.reset();
+    }
+
+    @Override
+    public String toString() {
+        return this.table + "." + this.operation + ": " + this.getCalls() + " calls, " + this.getRows() + " rows, p99 " +
+                this.getP99LatencyMillis() + " ms";
+    }
+}
@@ -0,0 +1,29 @@
+package me.vermulst.vermulstutils.data;
+
+/**
+ * JMX view of the {@link OperationMetrics} of one operation on one table.
+ */
+public interface OperationMetricsMBean {
+
+    String getTable();
+
+    String getOperation();
+
+    long getCalls();
+
+    long getFailures();
+
+    long getRows();
+
+    double getMeanLatencyMillis();
+
+    double getMaxLatencyMillis();
+
+    double getP50LatencyMillis();
+
+    double getP99LatencyMillis();
+
+    double getP999LatencyMillis();
+
+    void reset();
+}
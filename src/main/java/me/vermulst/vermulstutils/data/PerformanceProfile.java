@@ -0,0 +1,226 @@
+package me.vermulst.vermulstutils.data;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * PRAGMA settings applied to every connection a {@link Database} opens.
+ * Settings left null keep the SQLite default.
+ */
+public class PerformanceProfile {
+
+    /** Full fsync on every commit, nothing kept in memory beyond the defaults
+     */
+    public static final PerformanceProfile DURABLE = builder()
+            .journalMode(JournalMode.WAL)
+            .synchronous(Synchronous.FULL)
+            .busyTimeout(5000)
+            .build();
+
+    /** WAL with fsync only at checkpoints, a 16 MB page cache and 64 MB of mmap
+     */
+    public static final PerformanceProfile BALANCED = builder()
+            .journalMode(JournalMode.WAL)
+            .synchronous(Synchronous.NORMAL)
+            .cacheSize(-16_000)
+            .mmapSize(64L * 1024 * 1024)
+            .tempStore(TempStore.MEMORY)
+            .busyTimeout(5000)
+            .build();
+
+    /** No fsync at all, a 64 MB page cache and 256 MB of mmap.
+     * Survives a crash of the server, but not of the machine.
+     */
+    public static final PerformanceProfile THROUGHPUT = builder()
+            .journalMode(JournalMode.WAL)
+            .synchronous(Synchronous.OFF)
+            .cacheSize(-64_000)
+            .mmapSize(256L * 1024 * 1024)
+            .tempStore(TempStore.MEMORY)
+            .busyTimeout(5000)
+            .build();
+
+    private static final List<String> PRAGMAS = List.of(
+            "journal_mode", "synchronous", "cache_size", "mmap_size", "page_size", "temp_store", "busy_timeout");
+
+    public enum JournalMode {
+        DELETE, TRUNCATE, PERSIST, MEMORY, WAL, OFF
+    }
+
+    public enum Synchronous {
+        OFF, NORMAL, FULL, EXTRA
+    }
+
+    public enum TempStore {
+        DEFAULT, FILE, MEMORY
+    }
+
+    private JournalMode journalMode;
+    private Synchronous synchronous;
+    private Integer cacheSize;
+    private Long mmapSize;
+    private Integer pageSize;
+    private TempStore tempStore;
+    private Integer busyTimeout;
+
+    private PerformanceProfile() {
+    }
+
+    /** Applies the settings of the database file, only the writer does this.
+     * page_size only has effect before the first table is created.
+     */
+    protected void applyDatabase(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            if (this.pageSize != null) statement.execute("PRAGMA page_size = " + this.pageSize);
+            if (this.journalMode != null) statement.execute("PRAGMA journal_mode = " + this.journalMode.name());
+        }
+    }
+
+    /** Applies the settings that are kept per connection
+     */
+    protected void applyConnection(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            if (this.synchronous != null) statement.execute("PRAGMA synchronous = " + this.synchronous.name());
+            if (this.cacheSize != null) statement.execute("PRAGMA cache_size = " + this.cacheSize);
+            if (this.mmapSize != null) statement.execute("PRAGMA mmap_size = " + this.mmapSize);
+            if (this.tempStore != null) statement.execute("PRAGMA temp_store = " + this.tempStore.name());
+            if (this.busyTimeout != null) statement.execute("PRAGMA busy_timeout = " + this.busyTimeout);
+        }
+    }
+
+    /**
+     * @return pragma name -> value as reported by SQLite for the given connection
+     */
+    protected static Map<String, String> readEffective(Connection connection) throws SQLException {
+        Map<String, String> values = new LinkedHashMap<>();
+        try (Statement statement = connection.createStatement()) {
+            for (String pragma : PRAGMAS) {
+                try (ResultSet resultSet = statement.executeQuery("PRAGMA " + pragma)) {
+                    values.put(pragma, resultSet.next() ? resultSet.getString(1) : null);
+                }
+            }
+        }
+        return values;
+    }
+
+    public JournalMode getJournalMode() {
+        return journalMode;
+    }
+
+    public Synchronous getSynchronous() {
+        return synchronous;
+    }
+
+    public Integer getCacheSize() {
+        return cacheSize;
+    }
+
+    public Long getMmapSize() {
+        return mmapSize;
+    }
+
+    public Integer getPageSize() {
+        return pageSize;
+    }
+
+    public TempStore getTempStore() {
+        return tempStore;
+    }
+
+    public Integer getBusyTimeout() {
+        return busyTimeout;
+    }
+
+    public Builder toBuilder() {
+        return builder()
+                .journalMode(journalMode)
+                .synchronous(synchronous)
+                .cacheSize(cacheSize)
+                .mmapSize(mmapSize)
+                .pageSize(pageSize)
+                .tempStore(tempStore)
+                .busyTimeout(busyTimeout);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+
+        private JournalMode journalMode;
+        private Synchronous synchronous;
+        private Integer cacheSize;
+        private Long mmapSize;
+        private Integer pageSize;
+        private TempStore tempStore;
+        private Integer busyTimeout;
+
+        private Builder() {
+        }
+
+        public Builder journalMode(JournalMode journalMode) {
+            this.journalMode = journalMode;
+            return this;
+        }
+
+        public Builder synchronous(Synchronous synchronous) {
+            this.synchronous = synchronous;
+            return this;
+        }
+
+        /**
+         * @param cacheSize - positive for pages, negative for KiB
+         */
+        public Builder cacheSize(Integer cacheSize) {
+            this.cacheSize = cacheSize;
+            return this;
+        }
+
+        /**
+         * @param mmapSize - bytes of the database file to memory map, 0 to disable
+         */
+        public Builder mmapSize(Long mmapSize) {
+            this.mmapSize = mmapSize;
+            return this;
+        }
+
+        public Builder pageSize(Integer pageSize) {
+            this.pageSize = pageSize;
+            return this;
+        }
+
+        public Builder tempStore(TempStore tempStore) {
+            this.tempStore = tempStore;
+            return this;
+        }
+
+        /**
+         * @param busyTimeout - milliseconds to wait on a locked database
+         */
+        public Builder busyTimeout(Integer busyTimeout) {
+            this.busyTimeout = busyTimeout;
+            return this;
+        }
+
+        public PerformanceProfile build() {
+            if (this.pageSize != null && (this.pageSize < 512 || this.pageSize > 65536 || Integer.bitCount(this.pageSize) != 1)) {
+                throw new IllegalStateException("Page size must be a power of two between 512 and 65536.");
+            }
+            PerformanceProfile profile = new PerformanceProfile();
+            profile.journalMode = this.journalMode;
+            profile.synchronous = this.synchronous;
+            profile.cacheSize = this.cacheSize;
+            profile.mmapSize = this.mmapSize;
+            profile.pageSize = this.pageSize;
+            profile.tempStore = this.tempStore;
+            profile.busyTimeout = this.busyTimeout;
+            return profile;
+        }
+    }
+}
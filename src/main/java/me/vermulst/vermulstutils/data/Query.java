@@ -0,0 +1,388 @@
+package me.vermulst.vermulstutils.data;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A typed SELECT on a table, built from columns and conditions and created by {@link Table.Loader#query()}.
+ * Filtering, ordering and limits run in SQLite, the values are bound so queries of the same shape share a cached statement.
+ * Aggregates run as a single SQL aggregate over the rows matching the conditions, ignoring ordering and limits.
+ */
+public class Query<PK> {
+
+    private final Table.Loader<PK> loader;
+    private final Table<PK> table;
+    private List<Column<?>> columns;
+    private Condition condition;
+    private final List<Order> orders = new ArrayList<>();
+    private int limit = -1;
+    private int offset;
+
+    protected Query(Table.Loader<PK> loader, Table<PK> table) {
+        this.loader = loader;
+        this.table = table;
+        this.columns = table.getNonPrimaryKeyColumns();
+    }
+
+    /** Columns to select besides the primary key, all non primary key columns by default
+     */
+    public Query<PK> select(Column<?>... columns) {
+        this.columns = List.of(columns);
+        return this;
+    }
+
+    /** Adds a condition rows have to match, combined with earlier conditions by AND
+     */
+    public Query<PK> where(Condition condition) {
+        this.condition = this.condition == null ? condition : this.condition.and(condition);
+        return this;
+    }
+
+    /** Orders the rows by the given orders, after earlier orders
+     */
+    public Query<PK> orderBy(Order... orders) {
+        this.orders.addAll(List.of(orders));
+        return this;
+    }
+
+    public Query<PK> limit(int limit) {
+        if (limit < 0) throw new IllegalArgumentException("Limit cannot be negative.");
+        this.limit = limit;
+        return this;
+    }
+
+    public Query<PK> offset(int offset) {
+        if (offset < 0) throw new IllegalArgumentException("Offset cannot be negative.");
+        this.offset = offset;
+        return this;
+    }
+
+    /** Lazily reads the matching rows.
+     * The stream holds a read connection until it is exhausted or closed, so use it in a try-with-resources.
+     */
+    public Stream<Row<PK>> stream() {
+        List<Column<?>> selected = this.columns;
+        int valueIndex = this.table.getDescriptor().getPrimaryKeySize() + 1;
+        return this.open(selected, resultSet -> {
+            List<Object> values = new ArrayList<>(selected.size());
+            int index = valueIndex;
+            for (Column<?> column : selected) {
+                values.add(this.loader.readValue(resultSet, index++, column));
+            }
+            return new Row<>(this.loader.readPrimaryKey(resultSet, 1), selected, values);
+        });
+    }
+
+    /** Lazily reads the matching rows into a record or POJO through the {@link RowMapper} of the type, ignoring {@link #select}
+     */
+    public <R> Stream<R> streamAs(Class<R> type) {
+        RowMapper<PK, R> mapper = this.table.mapper(type);
+        List<Column<?>> selected = mapper.getValueColumns();
+        int valueIndex = this.table.getDescriptor().getPrimaryKeySize() + 1;
+        return this.open(selected, resultSet -> {
+            Object[] values = new Object[selected.size()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = this.loader.readValue(resultSet, valueIndex + i, selected.get(i));
+            }
+            return mapper.create(this.loader.readPrimaryKey(resultSet, 1), values);
+        });
+    }
+
+    /**
+     * @return the matching rows, in order
+     */
+    public List<Row<PK>> list() {
+        try (Stream<Row<PK>> rows = this.stream()) {
+            return rows.collect(Collectors.toList());
+        }
+    }
+
+    public <R> List<R> listAs(Class<R> type) {
+        try (Stream<R> rows = this.streamAs(type)) {
+            return rows.collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * @return the first matching row, or null
+     */
+    public Row<PK> first() {
+        int limit = this.limit;
+        this.limit = this.limit == -1 ? 1 : Math.min(this.limit, 1);
+        try (Stream<Row<PK>> rows = this.stream()) {
+            return rows.findFirst().orElse(null);
+        } finally {
+            this.limit = limit;
+        }
+    }
+
+    /**
+     * @return amount of matching rows
+     */
+    public long count() {
+        Long count = this.aggregate("count(*)", resultSet -> resultSet.getLong(1));
+        return count != null ? count : 0;
+    }
+
+    /** Sums an integer column, NULL values are skipped
+     *
+     * @return the sum, 0 if no row matches
+     */
+    public long sumLong(Column<? extends Number> column) {
+        checkInteger(column);
+        Long sum = this.aggregate("coalesce(sum(" + column.getName() + "), 0)", resultSet -> resultSet.getLong(1));
+        return sum != null ? sum : 0;
+    }
+
+    /** Sums a numeric column as floating point with SQLite's total, NULL values are skipped
+     *
+     * @return the sum, 0 if no row matches
+     */
+    public double sumDouble(Column<? extends Number> column) {
+        Double sum = this.aggregate("total(" + column.getName() + ")", resultSet -> resultSet.getDouble(1));
+        return sum != null ? sum : 0;
+    }
+
+    /**
+     * @return the average of the non NULL values, or null if there are none
+     */
+    public Double avg(Column<? extends Number> column) {
+        return this.aggregate("avg(" + column.getName() + ")", resultSet -> {
+            double average = resultSet.getDouble(1);
+            return resultSet.wasNull() ? null : average;
+        });
+    }
+
+    /**
+     * @return the smallest non NULL value, or null if there is none
+     */
+    public <T> T min(Column<T> column) {
+        return this.aggregate("min(" + column.getName() + ")", resultSet -> this.loader.readValue(resultSet, 1, column));
+    }
+
+    /**
+     * @return the largest non NULL value, or null if there is none
+     */
+    public <T> T max(Column<T> column) {
+        return this.aggregate("max(" + column.getName() + ")", resultSet -> this.loader.readValue(resultSet, 1, column));
+    }
+
+    /** Groups the matching rows by the values of a column, rows where it is NULL are left out
+     */
+    public <G> Grouping<PK, G> groupBy(Column<G> column) {
+        return new Grouping<>(this, column);
+    }
+
+    private <R> R aggregate(String expression, Table.Loader.ResultReader<R> reader) {
+        return this.execute(expression, null, sql -> {
+            try (ResultSet resultSet = sql.executeQuery()) {
+                return resultSet.next() ? reader.read(resultSet) : null;
+            }
+        });
+    }
+
+    /** Runs a SELECT of the expression over the matching rows on a cached statement
+     *
+     * @param groupBy - column to group by, selected before the expression, or null
+     */
+    private <R> R execute(String expression, Column<?> groupBy, StatementReader<R> reader) {
+        if (this.loader.isDisconnected()) return null;
+        this.loader.flushCache();
+        Condition condition = this.condition;
+        if (groupBy != null) condition = condition == null ? groupBy.isNotNull() : condition.and(groupBy.isNotNull());
+        StringBuilder builder = new StringBuilder("SELECT ");
+        if (groupBy != null) builder.append(groupBy.getName()).append(", ");
+        builder.append(expression).append(" FROM ").append(this.table.getName());
+        if (condition != null) builder.append(" WHERE ").append(condition.getSql());
+        if (groupBy != null) builder.append(" GROUP BY ").append(groupBy.getName());
+        String sql = builder.toString();
+        Condition where = condition;
+        try {
+            // An aggregate reads one row, a grouping one row per group
+            return this.loader.execute(groupBy == null ? "aggregate" : "groupBy", result -> groupBy == null ? 1 : (Integer) result, connection -> {
+                PreparedStatement statement = this.loader.prepare(connection, "aggregate", List.of(sql), () -> sql);
+                if (where != null) where.bind(statement, 1);
+                return reader.read(statement);
+            });
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed aggregating table: " + this.table.getName(), e);
+        }
+    }
+
+    private static void checkInteger(Column<?> column) {
+        Class<?> type = column.getType();
+        if (type != Long.class && type != Integer.class && type != Short.class) {
+            throw new IllegalArgumentException("Column " + column.getName() + " is not an integer column.");
+        }
+    }
+
+    private <R> Stream<R> open(List<Column<?>> selected, Table.Loader.ResultReader<R> reader) {
+        if (this.loader.isDisconnected()) return Stream.empty();
+        this.loader.flushCache();
+        return this.loader.stream("query", this.getSql(selected), this.getParameters(), reader);
+    }
+
+    /**
+     * @return the condition rows have to match, or null if all rows match
+     */
+    protected Condition getCondition() {
+        return condition;
+    }
+
+    private String getSql(List<Column<?>> selected) {
+        StringBuilder sql = new StringBuilder("SELECT ");
+        sql.append(this.table.getDescriptor().getPrimaryKeySelection());
+        for (Column<?> column : selected) {
+            sql.append(", ").append(column.getName());
+        }
+        sql.append(" FROM ").append(this.table.getName());
+        if (this.condition != null) sql.append(" WHERE ").append(this.condition.getSql());
+        if (!this.orders.isEmpty()) {
+            sql.append(" ORDER BY ").append(this.orders.stream().map(Order::getSql).collect(Collectors.joining(", ")));
+        }
+        // Bound as parameters, so the limit does not change the statement
+        if (this.limit != -1 || this.offset != 0) sql.append(" LIMIT ? OFFSET ?");
+        return sql.toString();
+    }
+
+    private List<Object> getParameters() {
+        List<Object> parameters = new ArrayList<>();
+        if (this.condition != null) parameters.addAll(this.condition.getParameters());
+        if (this.limit != -1 || this.offset != 0) {
+            parameters.add(this.limit);
+            parameters.add(this.offset);
+        }
+        return parameters;
+    }
+
+    private interface StatementReader<R> {
+        R read(PreparedStatement statement) throws SQLException;
+    }
+
+    /**
+     * Aggregates per value of a column, created by {@link Query#groupBy(Column)}.
+     * Every aggregate runs as a single GROUP BY query, rows where the column is NULL are left out.
+     */
+    public static class Grouping<PK, G> {
+
+        private final Query<PK> query;
+        private final Column<G> column;
+
+        protected Grouping(Query<PK> query, Column<G> column) {
+            this.query = query;
+            this.column = column;
+        }
+
+        /**
+         * @return Key = group value, value = amount of rows in the group
+         */
+        public ObjectLongMap<G> count() {
+            return this.longs("count(*)");
+        }
+
+        /**
+         * @return Key = group value, value = sum of the integer column in the group
+         */
+        public ObjectLongMap<G> sumLong(Column<? extends Number> column) {
+            checkInteger(column);
+            return this.longs("coalesce(sum(" + column.getName() + "), 0)");
+        }
+
+        /**
+         * @return Key = group value, value = floating point sum of the column in the group
+         */
+        public ObjectDoubleMap<G> sumDouble(Column<? extends Number> column) {
+            return this.doubles("total(" + column.getName() + ")");
+        }
+
+        /**
+         * @return Key = group value, value = average of the non NULL values, groups without any are left out
+         */
+        public ObjectDoubleMap<G> avg(Column<? extends Number> column) {
+            return this.doubles("avg(" + column.getName() + ")");
+        }
+
+        public <T> Map<G, T> min(Column<T> column) {
+            return this.values("min(" + column.getName() + ")", column);
+        }
+
+        public <T> Map<G, T> max(Column<T> column) {
+            return this.values("max(" + column.getName() + ")", column);
+        }
+
+        private ObjectLongMap<G> longs(String expression) {
+            ObjectLongMap<G> values = new ObjectLongMap<>();
+            this.read(expression, resultSet -> {
+                long value = resultSet.getLong(2);
+                if (!resultSet.wasNull()) values.put(this.readGroup(resultSet), value);
+            });
+            return values;
+        }
+
+        private ObjectDoubleMap<G> doubles(String expression) {
+            ObjectDoubleMap<G> values = new ObjectDoubleMap<>();
+            this.read(expression, resultSet -> {
+                double value = resultSet.getDouble(2);
+                if (!resultSet.wasNull()) values.put(this.readGroup(resultSet), value);
+            });
+            return values;
+        }
+
+        private <T> Map<G, T> values(String expression, Column<T> column) {
+            Map<G, T> values = new HashMap<>();
+            this.read(expression, resultSet -> values.put(this.readGroup(resultSet), this.query.loader.readValue(resultSet, 2, column)));
+            return values;
+        }
+
+        private G readGroup(ResultSet resultSet) throws SQLException {
+            return this.query.loader.readValue(resultSet, 1, this.column);
+        }
+
+        private void read(String expression, GroupConsumer consumer) {
+            this.query.execute(expression, this.column, statement -> {
+                int groups = 0;
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        consumer.accept(resultSet);
+                        groups++;
+                    }
+                }
+                return groups;
+            });
+        }
+
+        private interface GroupConsumer {
+            void accept(ResultSet resultSet) throws SQLException;
+        }
+    }
+
+    /**
+     * Ordering of a column, created by {@link Column#asc()} and {@link Column#desc()}.
+     */
+    public static class Order {
+
+        private final Column<?> column;
+        private final boolean descending;
+
+        protected Order(Column<?> column, boolean descending) {
+            this.column = column;
+            this.descending = descending;
+        }
+
+        public Column<?> getColumn() {
+            return column;
+        }
+
+        public boolean isDescending() {
+            return descending;
+        }
+
+        protected String getSql() {
+            return this.column.getName() + (this.descending ? " DESC" : " ASC");
+        }
+    }
+}
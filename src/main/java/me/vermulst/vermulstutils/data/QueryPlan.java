@@ -0,0 +1,81 @@
+package me.vermulst.vermulstutils.data;
+
+import java.sql.*;
+import java.util.*;
+
+/**
+ * Output of EXPLAIN QUERY PLAN for a statement, captured by the {@link SlowStatementLog}.
+ */
+public class QueryPlan {
+
+    private final String sql;
+    private final List<String> details;
+    private final boolean scan;
+
+    protected QueryPlan(String sql, List<String> details) {
+        this.sql = sql;
+        this.details = List.copyOf(details);
+        this.scan = details.stream().anyMatch(QueryPlan::isScan);
+    }
+
+    /** Explains the statement with NULL for every parameter, which does not change the chosen plan
+     */
+    protected static QueryPlan explain(Connection connection, String sql) throws SQLException {
+        List<String> details = new ArrayList<>();
+        try (PreparedStatement statement = connection.prepareStatement("EXPLAIN QUERY PLAN " + sql)) {
+            int parameterCount = countParameters(sql);
+            for (int i = 1; i <= parameterCount; i++) {
+                statement.setNull(i, Types.NULL);
+            }
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    details.add(resultSet.getString("detail"));
+                }
+            }
+        }
+        return new QueryPlan(sql, details);
+    }
+
+    /**
+     * @return amount of ? placeholders outside of string literals
+     */
+    protected static int countParameters(String sql) {
+        int count = 0;
+        boolean literal = false;
+        for (int i = 0; i < sql.length(); i++) {
+            char character = sql.charAt(i);
+            if (character == '\'') literal = !literal;
+            else if (character == '?' && !literal) count++;
+        }
+        return count;
+    }
+
+    /** A step that visits every row of a table or index, instead of searching it
+     */
+    private static boolean isScan(String detail) {
+        return detail.startsWith("SCAN") && !detail.startsWith("SCAN CONSTANT ROW");
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    /**
+     * @return detail of every step in the plan
+     */
+    public List<String> getDetails() {
+        return details;
+    }
+
+    /**
+     * @return true if the plan scans a whole table or index
+     */
+    public boolean isScan() {
+        return scan;
+    }
+
+    @Override
+    public String toString() {
+        return String.join("; ", this.details);
+    }
+}
@@ -0,0 +1,52 @@
+package me.vermulst.vermulstutils.data;
+
+import java.util.List;
+
+/**
+ * A row read by a loader: its primary key and the values of the selected columns.
+ */
+public class Row<PK> {
+
+    private final PK primaryKey;
+    private final List<Column<?>> columns;
+    private final List<Object> values;
+
+    protected Row(PK primaryKey, List<Column<?>> columns, List<Object> values) {
+        this.primaryKey = primaryKey;
+        this.columns = columns;
+        this.values = values;
+    }
+
+    public PK getPrimaryKey() {
+        return primaryKey;
+    }
+
+    /**
+     * @return values in same order to the selected columns
+     */
+    public List<Object> getValues() {
+        return values;
+    }
+
+    public List<Column<?>> getColumns() {
+        return columns;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the column was not selected
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(Column<T> column) {
+        for (int i = 0; i < this.columns.size(); i++) {
+            if (this.columns.get(i).getName().equals(column.getName())) {
+                return (T) this.values.get(i);
+            }
+        }
+        throw new IllegalArgumentException("Column " + column.getName() + " was not selected.");
+    }
+
+    @Override
+    public String toString() {
+        return primaryKey + "=" + values;
+    }
+}
@@ -0,0 +1,340 @@
+package me.vermulst.vermulstutils.data;
+
+import java.sql.SQLException;
+import java.util.*;
+
+/**
+ * Optional cache in front of the loaders and savers of a table, keyed by primary key.
+ * Saved values are kept as dirty columns and written when the row is evicted or the cache is flushed.
+ * Rows are evicted least recently used first once the total weight exceeds the maximum.
+ * <p>
+ * Lock order: the writer of the database before the monitor of the cache.
+ * Dirty rows are written or queued while holding both, so the cache never waits for the writer while holding its monitor.
+ */
+public class RowCache<PK> {
+
+    private final Table<PK> table;
+    private final List<Column<?>> columns;
+    private final Map<String, Integer> ordinals = new HashMap<>();
+    private final long maximumWeight;
+    private final Weigher<PK> weigher;
+    private final LinkedHashMap<PK, CachedRow> rows = new LinkedHashMap<>(16, 0.75f, true);
+    private Database database;
+    private long weight;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long flushedRows;
+
+    protected RowCache(Table<PK> table, long maximumWeight, Weigher<PK> weigher) {
+        this.table = table;
+        this.columns = table.getNonPrimaryKeyColumns();
+        for (int i = 0; i < this.columns.size(); i++) {
+            this.ordinals.put(this.columns.get(i).getName(), i);
+        }
+        this.maximumWeight = maximumWeight;
+        this.weigher = weigher;
+    }
+
+    protected void bind(Database database) {
+        this.database = database;
+    }
+
+    /**
+     * @return the cached values in same order to the columns, or null if any of them is not cached
+     */
+    protected synchronized List<Object> get(PK primaryKey, List<Column<?>> columns) {
+        CachedRow row = this.rows.get(primaryKey);
+        if (row != null) {
+            List<Object> values = new ArrayList<>(columns.size());
+            for (Column<?> column : columns) {
+                Integer ordinal = this.ordinals.get(column.getName());
+                if (ordinal == null || !row.loaded.get(ordinal)) {
+                    values = null;
+                    break;
+                }
+                values.add(row.values[ordinal]);
+            }
+            if (values != null) {
+                this.hits++;
+                return values;
+            }
+        }
+        this.misses++;
+        return null;
+    }
+
+    /** Caches values loaded from the database, dirty values in the cache take precedence
+     *
+     * @return the values in same order to the columns, as they are after merging
+     */
+    protected List<Object> put(PK primaryKey, List<Column<?>> columns, List<Object> values) {
+        List<Object> merged = new ArrayList<>(values.size());
+        boolean evictDirty;
+        synchronized (this) {
+            CachedRow row = this.getOrCreate(primaryKey);
+            for (int i = 0; i < columns.size(); i++) {
+                Integer ordinal = this.ordinals.get(columns.get(i).getName());
+                if (ordinal == null) {
+                    merged.add(values.get(i));
+                    continue;
+                }
+                if (!row.dirty.get(ordinal)) {
+                    row.values[ordinal] = values.get(i);
+                    row.loaded.set(ordinal);
+                }
+                merged.add(row.values[ordinal]);
+            }
+            this.reweigh(primaryKey, row);
+            evictDirty = this.evict(null);
+        }
+        if (evictDirty) this.evictDirty();
+        return merged;
+    }
+
+    /** Values of a row that was saved through the cache but is not in the database yet
+     *
+     * @return the values in same order to the columns, null for columns that were not saved,
+     * or null if the row has no pending writes
+     */
+    protected synchronized List<Object> getPending(PK primaryKey, List<Column<?>> columns) {
+        CachedRow row = this.rows.get(primaryKey);
+        if (row == null || !row.insert) return null;
+        List<Object> values = new ArrayList<>(columns.size());
+        for (Column<?> column : columns) {
+            Integer ordinal = this.ordinals.get(column.getName());
+            values.add(ordinal != null && row.loaded.get(ordinal) ? row.values[ordinal] : null);
+        }
+        return values;
+    }
+
+    /** Saves values into the cache, they are written to the database on eviction or flush
+     */
+    protected void write(PK primaryKey, List<Column<?>> columns, List<Object> values) {
+        boolean evictDirty;
+        synchronized (this) {
+            CachedRow row = this.getOrCreate(primaryKey);
+            row.insert = true;
+            for (int i = 0; i < columns.size(); i++) {
+                int ordinal = this.ordinals.get(columns.get(i).getName());
+                row.values[ordinal] = values.get(i);
+                row.loaded.set(ordinal);
+                row.dirty.set(ordinal);
+            }
+            this.reweigh(primaryKey, row);
+            evictDirty = this.evict(null);
+        }
+        if (evictDirty) this.evictDirty();
+    }
+
+    /** Removes a row without writing its dirty values
+     */
+    protected synchronized void invalidate(PK primaryKey) {
+        CachedRow row = this.rows.remove(primaryKey);
+        if (row != null) this.weight -= row.weight;
+    }
+
+    /** Writes all dirty rows to the database, or queues them if the database has a write-behind queue
+     */
+    public void flush() {
+        this.flush(false);
+    }
+
+    /** Flushes and then removes all rows
+     */
+    public void invalidateAll() {
+        this.flush(true);
+    }
+
+    private void flush(boolean clear) {
+        synchronized (this) {
+            if (!this.hasDirtyRows()) {
+                if (clear) this.clear();
+                return;
+            }
+        }
+        Table.Saver<PK> saver = this.saver();
+        try {
+            saver.execute("flushCache", connection -> {
+                synchronized (this) {
+                    List<Map.Entry<PK, CachedRow>> dirtyRows = new ArrayList<>();
+                    for (Map.Entry<PK, CachedRow> entry : this.rows.entrySet()) {
+                        if (entry.getValue().insert) dirtyRows.add(entry);
+                    }
+                    for (Map.Entry<PK, CachedRow> entry : dirtyRows) {
+                        this.write(saver, connection, entry.getKey(), entry.getValue());
+                    }
+                    if (clear) this.clear();
+                    return dirtyRows;
+                }
+            });
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed flushing cached rows of table: " + this.table.getName(), e);
+        }
+    }
+
+    private boolean hasDirtyRows() {
+        for (CachedRow row : this.rows.values()) {
+            if (row.insert) return true;
+        }
+        return false;
+    }
+
+    private void clear() {
+        this.rows.clear();
+        this.weight = 0;
+    }
+
+    /** Writes the row, or queues it if the database has a write-behind queue, and marks it clean.
+     * Only call while holding the writer and then the monitor.
+     */
+    private void write(Table.Saver<PK> saver, DatabaseConnection connection, PK primaryKey, CachedRow row) throws SQLException {
+        if (saver.writeBehind != null) {
+            saver.write(primaryKey, this.getDirtyColumns(row), this.getDirtyValues(row));
+        } else {
+            saver.upsert(connection, primaryKey, this.getDirtyColumns(row), this.getDirtyValues(row));
+        }
+        this.markClean(row);
+    }
+
+    private List<Column<?>> getDirtyColumns(CachedRow row) {
+        List<Column<?>> columns = new ArrayList<>(row.dirty.cardinality());
+        for (int ordinal = row.dirty.nextSetBit(0); ordinal >= 0; ordinal = row.dirty.nextSetBit(ordinal + 1)) {
+            columns.add(this.columns.get(ordinal));
+        }
+        return columns;
+    }
+
+    private List<Object> getDirtyValues(CachedRow row) {
+        List<Object> values = new ArrayList<>(row.dirty.cardinality());
+        for (int ordinal = row.dirty.nextSetBit(0); ordinal >= 0; ordinal = row.dirty.nextSetBit(ordinal + 1)) {
+            values.add(row.values[ordinal]);
+        }
+        return values;
+    }
+
+    private void markClean(CachedRow row) {
+        row.dirty.clear();
+        row.insert = false;
+        this.flushedRows++;
+    }
+
+    private Table.Saver<PK> saver() {
+        if (this.database == null) {
+            throw new IllegalStateException("Table " + this.table.getName() + " has not been added to a database.");
+        }
+        Table.Saver<PK> saver = Table.saver(this.table, this.database);
+        saver.cache = null;
+        return saver;
+    }
+
+    private CachedRow getOrCreate(PK primaryKey) {
+        CachedRow row = this.rows.get(primaryKey);
+        if (row == null) {
+            row = new CachedRow(this.columns.size());
+            this.rows.put(primaryKey, row);
+        }
+        return row;
+    }
+
+    private void reweigh(PK primaryKey, CachedRow row) {
+        long weight = this.weigher.weigh(primaryKey, Collections.unmodifiableList(Arrays.asList(row.values)));
+        this.weight += weight - row.weight;
+        row.weight = weight;
+    }
+
+    /** Evicts rows until the total weight fits, only call while holding the monitor
+     *
+     * @param connection - the writer to write dirty rows with, only while holding it, or null to stop at the first dirty row
+     * @return true if a dirty row is left to evict
+     */
+    private boolean evict(DatabaseConnection connection) {
+        Iterator<Map.Entry<PK, CachedRow>> iterator = this.rows.entrySet().iterator();
+        Table.Saver<PK> saver = null;
+        // Always keep the most recently used row
+        while (this.weight > this.maximumWeight && this.rows.size() > 1 && iterator.hasNext()) {
+            Map.Entry<PK, CachedRow> eldest = iterator.next();
+            CachedRow row = eldest.getValue();
+            if (row.insert) {
+                if (connection == null) return true;
+                if (saver == null) saver = this.saver();
+                try {
+                    this.write(saver, connection, eldest.getKey(), row);
+                } catch (SQLException e) {
+                    throw new RuntimeException("Failed writing evicted row of table: " + this.table.getName(), e);
+                }
+            }
+            iterator.remove();
+            this.weight -= row.weight;
+            this.evictions++;
+        }
+        return false;
+    }
+
+    /** Evicts dirty rows while holding the writer, which is taken before the monitor
+     */
+    private void evictDirty() {
+        try {
+            this.saver().execute("evictCache", connection -> {
+                synchronized (this) {
+                    return this.evict(connection);
+                }
+            });
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed writing evicted row of table: " + this.table.getName(), e);
+        }
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return amount of dirty rows written to the database so far
+     */
+    public synchronized long getFlushedRows() {
+        return flushedRows;
+    }
+
+    public synchronized int size() {
+        return this.rows.size();
+    }
+
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    public long getMaximumWeight() {
+        return maximumWeight;
+    }
+
+    public interface Weigher<PK> {
+        /**
+         * @param values - cached values in same order to the non primary key columns, null if not cached
+         */
+        long weigh(PK primaryKey, List<Object> values);
+    }
+
+    private static class CachedRow {
+
+        private final Object[] values;
+        private final BitSet loaded = new BitSet();
+        private final BitSet dirty = new BitSet();
+        private long weight;
+        // Set while the row has writes that are not in the database yet
+        private boolean insert;
+
+        private CachedRow(int size) {
+            this.values = new Object[size];
+        }
+    }
+}
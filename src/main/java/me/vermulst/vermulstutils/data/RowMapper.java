@@ -0,0 +1,212 @@
+package me.vermulst.vermulstutils.data;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.*;
+import java.util.*;
+
+/**
+ * Maps rows of a table to records or POJOs and back, matching record components or fields to columns by name.
+ * The method handles are looked up once when the mapper is created, reading and writing rows uses no reflection.
+ * Records are created through their canonical constructor, POJOs through a no-argument constructor and their fields.
+ * Every component or non transient field has to match a column, and the primary key columns have to be mapped.
+ */
+public class RowMapper<PK, R> {
+
+    private final Class<R> type;
+    // Mapped non primary key columns, in order of the properties
+    private final List<Column<?>> valueColumns;
+    private final List<String> valueColumnNames;
+    private final int[] primaryKeySlots;
+    private final int[] valueSlots;
+    private final MethodHandle[] getters;
+    // Record: (Object[])Object over the canonical constructor, POJO: ()Object
+    private final MethodHandle constructor;
+    // Only for POJOs: (Object, Object)void per property
+    private final MethodHandle[] setters;
+    // Value for primitive properties when the column is NULL
+    private final Object[] defaults;
+
+    private RowMapper(Class<R> type, TableDescriptor descriptor, List<Property> properties, MethodHandle constructor, boolean record) {
+        this.type = type;
+        int size = properties.size();
+        this.getters = new MethodHandle[size];
+        this.setters = record ? null : new MethodHandle[size];
+        this.defaults = new Object[size];
+        Column<?>[] columnsBySlot = new Column<?>[size];
+        for (int slot = 0; slot < size; slot++) {
+            Property property = properties.get(slot);
+            Column<?> column = descriptor.getColumn(property.name);
+            if (column == null) {
+                throw new IllegalArgumentException(type.getSimpleName() + "." + property.name + " has no column in table " + descriptor.getName());
+            }
+            Class<?> boxed = MethodType.methodType(property.type).wrap().returnType();
+            if (!boxed.equals(column.getType())) {
+                throw new IllegalArgumentException(type.getSimpleName() + "." + property.name + " is " + property.type.getSimpleName() +
+                        " but column " + column.getName() + " is " + column.getType().getSimpleName());
+            }
+            columnsBySlot[slot] = column;
+            this.getters[slot] = property.getter.asType(MethodType.methodType(Object.class, Object.class));
+            if (!record) this.setters[slot] = property.setter.asType(MethodType.methodType(void.class, Object.class, Object.class));
+            if (property.type.isPrimitive()) this.defaults[slot] = Array.get(Array.newInstance(property.type, 1), 0);
+        }
+
+        this.primaryKeySlots = new int[descriptor.getPrimaryKeySize()];
+        for (int i = 0; i < this.primaryKeySlots.length; i++) {
+            Column<?> primaryKeyColumn = descriptor.getPrimaryKeyColumn(i);
+            this.primaryKeySlots[i] = indexOf(columnsBySlot, primaryKeyColumn);
+            if (this.primaryKeySlots[i] == -1) {
+                throw new IllegalArgumentException(type.getSimpleName() + " does not map primary key column " + primaryKeyColumn.getName());
+            }
+        }
+        List<Column<?>> valueColumns = new ArrayList<>();
+        List<Integer> valueSlots = new ArrayList<>();
+        for (int slot = 0; slot < size; slot++) {
+            if (columnsBySlot[slot].isPrimaryKey()) continue;
+            valueColumns.add(columnsBySlot[slot]);
+            valueSlots.add(slot);
+        }
+        // Reusing the lists of the descriptor lets its prebuilt statements be used
+        if (valueColumns.equals(descriptor.getNonPrimaryKeyColumns())) {
+            this.valueColumns = descriptor.getNonPrimaryKeyColumns();
+        } else {
+            this.valueColumns = List.copyOf(valueColumns);
+        }
+        this.valueColumnNames = descriptor.getColumnNames(this.valueColumns);
+        this.valueSlots = valueSlots.stream().mapToInt(Integer::intValue).toArray();
+        this.constructor = record
+                ? constructor.asType(constructor.type().generic()).asSpreader(Object[].class, size)
+                : constructor.asType(MethodType.methodType(Object.class));
+    }
+
+    protected static <PK, R> RowMapper<PK, R> create(TableDescriptor descriptor, Class<R> type) {
+        try {
+            if (type.isRecord()) {
+                RecordComponent[] components = type.getRecordComponents();
+                List<Property> properties = new ArrayList<>(components.length);
+                Class<?>[] parameterTypes = new Class<?>[components.length];
+                for (int i = 0; i < components.length; i++) {
+                    RecordComponent component = components[i];
+                    Method accessor = component.getAccessor();
+                    accessor.setAccessible(true);
+                    properties.add(new Property(component.getName(), component.getType(), MethodHandles.lookup().unreflect(accessor), null));
+                    parameterTypes[i] = component.getType();
+                }
+                Constructor<R> constructor = type.getDeclaredConstructor(parameterTypes);
+                constructor.setAccessible(true);
+                return new RowMapper<>(type, descriptor, properties, MethodHandles.lookup().unreflectConstructor(constructor), true);
+            }
+            List<Property> properties = new ArrayList<>();
+            for (Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass()) {
+                for (Field field : current.getDeclaredFields()) {
+                    int modifiers = field.getModifiers();
+                    if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic()) continue;
+                    if (Modifier.isFinal(modifiers)) {
+                        throw new IllegalArgumentException(type.getSimpleName() + "." + field.getName() + " is final, mark it transient to leave it unmapped");
+                    }
+                    field.setAccessible(true);
+                    properties.add(new Property(field.getName(), field.getType(),
+                            MethodHandles.lookup().unreflectGetter(field), MethodHandles.lookup().unreflectSetter(field)));
+                }
+            }
+            Constructor<R> constructor = type.getDeclaredConstructor();
+            constructor.setAccessible(true);
+            return new RowMapper<>(type, descriptor, properties, MethodHandles.lookup().unreflectConstructor(constructor), false);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalArgumentException(type.getSimpleName() + " has no canonical or no-argument constructor", e);
+        } catch (IllegalAccessException | InaccessibleObjectException e) {
+            throw new IllegalArgumentException(type.getSimpleName() + " cannot be accessed for mapping", e);
+        }
+    }
+
+    /**
+     * @return the primary key of the row, a CompositeKey if the table has multiple primary key columns
+     */
+    @SuppressWarnings("unchecked")
+    public PK getPrimaryKey(R row) {
+        if (this.primaryKeySlots.length == 1) return (PK) this.get(row, this.primaryKeySlots[0]);
+        Object[] keyParts = new Object[this.primaryKeySlots.length];
+        for (int i = 0; i < keyParts.length; i++) {
+            keyParts[i] = this.get(row, this.primaryKeySlots[i]);
+        }
+        return (PK) new CompositeKey(Arrays.asList(keyParts));
+    }
+
+    /**
+     * @return values of the mapped non primary key columns, in same order to {@link #getValueColumns()}
+     */
+    public Object[] getValues(R row) {
+        Object[] values = new Object[this.valueSlots.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = this.get(row, this.valueSlots[i]);
+        }
+        return values;
+    }
+
+    /** Creates a row object from its primary key and the values of the mapped non primary key columns
+     *
+     * @param values - values in same order to {@link #getValueColumns()}
+     */
+    @SuppressWarnings("unchecked")
+    public R create(PK primaryKey, Object[] values) {
+        Object[] slots = new Object[this.getters.length];
+        if (this.primaryKeySlots.length == 1) {
+            slots[this.primaryKeySlots[0]] = primaryKey;
+        } else {
+            List<Object> keyParts = ((CompositeKey) primaryKey).getKeyParts();
+            for (int i = 0; i < this.primaryKeySlots.length; i++) {
+                slots[this.primaryKeySlots[i]] = keyParts.get(i);
+            }
+        }
+        for (int i = 0; i < this.valueSlots.length; i++) {
+            slots[this.valueSlots[i]] = values[i];
+        }
+        for (int slot = 0; slot < slots.length; slot++) {
+            if (slots[slot] == null) slots[slot] = this.defaults[slot];
+        }
+        try {
+            if (this.setters == null) return (R) (Object) this.constructor.invokeExact(slots);
+            Object row = (Object) this.constructor.invokeExact();
+            for (int slot = 0; slot < slots.length; slot++) {
+                this.setters[slot].invokeExact(row, slots[slot]);
+            }
+            return (R) row;
+        } catch (Throwable e) {
+            throw new RuntimeException("Failed creating " + this.type.getSimpleName() + " for key " + primaryKey, e);
+        }
+    }
+
+    private Object get(R row, int slot) {
+        try {
+            return (Object) this.getters[slot].invokeExact((Object) row);
+        } catch (Throwable e) {
+            throw new RuntimeException("Failed reading " + this.type.getSimpleName(), e);
+        }
+    }
+
+    public Class<R> getType() {
+        return type;
+    }
+
+    /**
+     * @return the mapped columns that are not part of the primary key
+     */
+    public List<Column<?>> getValueColumns() {
+        return valueColumns;
+    }
+
+    protected List<String> getValueColumnNames() {
+        return valueColumnNames;
+    }
+
+    private static int indexOf(Column<?>[] columns, Column<?> column) {
+        for (int i = 0; i < columns.length; i++) {
+            if (columns[i] == column) return i;
+        }
+        return -1;
+    }
+
+    private record Property(String name, Class<?> type, MethodHandle getter, MethodHandle setter) {
+    }
+}
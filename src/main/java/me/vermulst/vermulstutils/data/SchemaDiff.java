@@ -0,0 +1,334 @@
+package me.vermulst.vermulstutils.data;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+
+/**
+ * Differences between the columns, primary key and foreign keys a table declares and the ones in the database,
+ * read with PRAGMA table_xinfo, index_list and foreign_key_list.
+ */
+public class SchemaDiff {
+
+    private final String tableName;
+    private final List<Column<?>> addedColumns = new ArrayList<>();
+    private final List<String> droppedColumns = new ArrayList<>();
+    // Previous name -> new name
+    private final Map<String, String> renamedColumns = new LinkedHashMap<>();
+    // Dropped columns SQLite cannot drop with ALTER TABLE, because a constraint uses them
+    private final Set<String> constrainedColumns = new HashSet<>();
+    // Column name -> description of the change
+    private final Map<String, String> changedColumns = new LinkedHashMap<>();
+    private boolean primaryKeyChanged;
+    private boolean foreignKeysChanged;
+
+    private SchemaDiff(String tableName) {
+        this.tableName = tableName;
+    }
+
+    protected static SchemaDiff compare(Table<?> table, Connection connection) throws SQLException {
+        SchemaDiff diff = new SchemaDiff(table.getName());
+        Map<String, ColumnInfo> current = readColumns(connection, table.getName());
+        Set<String> uniqueColumns = readUniqueColumns(connection, table.getName());
+
+        Set<String> declaredNames = new HashSet<>();
+        for (Column<?> column : table.getColumns()) {
+            declaredNames.add(column.getName().toLowerCase(Locale.ROOT));
+        }
+        Set<String> definedNames = new HashSet<>();
+        for (Column<?> column : table.getColumns()) {
+            definedNames.add(column.getName().toLowerCase(Locale.ROOT));
+            ColumnInfo info = current.get(column.getName().toLowerCase(Locale.ROOT));
+            String previousName = column.getPreviousName();
+            if (info == null && previousName != null && !declaredNames.contains(previousName.toLowerCase(Locale.ROOT))) {
+                info = current.get(previousName.toLowerCase(Locale.ROOT));
+                if (info != null) {
+                    definedNames.add(previousName.toLowerCase(Locale.ROOT));
+                    diff.renamedColumns.put(info.name, column.getName());
+                }
+            }
+            if (info == null) {
+                diff.addedColumns.add(column);
+                continue;
+            }
+            List<String> changes = new ArrayList<>();
+            // INT and BIGINT, or VARCHAR(16) and TEXT, store values the same way
+            if (!Column.getAffinity(info.type).equals(Column.getAffinity(column.getColumnTypeName()))) {
+                changes.add("type " + info.type + " -> " + column.getColumnTypeName());
+            }
+            boolean notNull = column.getColumnProperties().contains(Column.ColumnProperty.NOT_NULL);
+            if (info.notNull != notNull) changes.add(notNull ? "NOT NULL added" : "NOT NULL removed");
+            boolean unique = column.getColumnProperties().contains(Column.ColumnProperty.UNIQUE);
+            if (uniqueColumns.contains(info.name.toLowerCase(Locale.ROOT)) != unique) {
+                changes.add(unique ? "UNIQUE added" : "UNIQUE removed");
+            }
+            String defaultValue = column.getDefaultValueDefinition();
+            String affinity = Column.getAffinity(column.getColumnTypeName());
+            if (!Objects.equals(normalize(info.defaultValue, affinity), normalize(defaultValue, affinity))) {
+                changes.add("default " + info.defaultValue + " -> " + defaultValue);
+            }
+            if (!changes.isEmpty()) diff.changedColumns.put(column.getName(), String.join(", ", changes));
+        }
+        List<String> currentPrimaryKey = new ArrayList<>();
+        current.values().stream()
+                .filter(info -> info.primaryKeyIndex > 0)
+                .sorted(Comparator.comparingInt(info -> info.primaryKeyIndex))
+                .forEach(info -> currentPrimaryKey.add(diff.renamedColumns.getOrDefault(info.name, info.name).toLowerCase(Locale.ROOT)));
+        for (ColumnInfo info : current.values()) {
+            if (!definedNames.contains(info.name.toLowerCase(Locale.ROOT))) diff.droppedColumns.add(info.name);
+        }
+
+        List<String> definedPrimaryKey = table.getPrimaryKeyNames().stream()
+                .map(name -> name.toLowerCase(Locale.ROOT))
+                .toList();
+        diff.primaryKeyChanged = !currentPrimaryKey.equals(definedPrimaryKey);
+
+        Set<String> definedForeignKeys = new HashSet<>();
+        for (ForeignKeyReference reference : table.foreignKeyReferences) {
+            definedForeignKeys.add(foreignKey(reference.getChildColumnName(), reference.getParentTableName(), reference.getParentColumnName()));
+        }
+        Set<String> currentForeignKeys = readForeignKeys(connection, table.getName());
+        diff.foreignKeysChanged = !currentForeignKeys.equals(definedForeignKeys);
+
+        for (String droppedColumn : diff.droppedColumns) {
+            String name = droppedColumn.toLowerCase(Locale.ROOT);
+            boolean foreignKey = currentForeignKeys.stream().anyMatch(foreignKey1 -> foreignKey1.startsWith(name + "->"));
+            if (uniqueColumns.contains(name) || current.get(name).primaryKeyIndex > 0 || foreignKey) {
+                diff.constrainedColumns.add(droppedColumn);
+            }
+        }
+        return diff;
+    }
+
+    private static Map<String, ColumnInfo> readColumns(Connection connection, String tableName) throws SQLException {
+        Map<String, ColumnInfo> columns = new LinkedHashMap<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("PRAGMA table_xinfo(" + tableName + ")")) {
+            while (resultSet.next()) {
+                // Generated and hidden columns are not declared through columns
+                if (resultSet.getInt("hidden") != 0) continue;
+                ColumnInfo info = new ColumnInfo(
+                        resultSet.getString("name"),
+                        resultSet.getString("type"),
+                        resultSet.getInt("notnull") == 1,
+                        resultSet.getString("dflt_value"),
+                        resultSet.getInt("pk"));
+                columns.put(info.name.toLowerCase(Locale.ROOT), info);
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * @return names of the columns that have a single column UNIQUE constraint
+     */
+    private static Set<String> readUniqueColumns(Connection connection, String tableName) throws SQLException {
+        List<String> indexNames = new ArrayList<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("PRAGMA index_list(" + tableName + ")")) {
+            while (resultSet.next()) {
+                if ("u".equals(resultSet.getString("origin"))) indexNames.add(resultSet.getString("name"));
+            }
+        }
+        Set<String> columnNames = new HashSet<>();
+        for (String indexName : indexNames) {
+            List<String> indexColumns = new ArrayList<>();
+            try (Statement statement = connection.createStatement();
+                 ResultSet resultSet = statement.executeQuery("PRAGMA index_info(" + indexName + ")")) {
+                while (resultSet.next()) {
+                    indexColumns.add(resultSet.getString("name"));
+                }
+            }
+            if (indexColumns.size() == 1) columnNames.add(indexColumns.get(0).toLowerCase(Locale.ROOT));
+        }
+        return columnNames;
+    }
+
+    private static Set<String> readForeignKeys(Connection connection, String tableName) throws SQLException {
+        Set<String> foreignKeys = new HashSet<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("PRAGMA foreign_key_list(" + tableName + ")")) {
+            while (resultSet.next()) {
+                foreignKeys.add(foreignKey(resultSet.getString("from"), resultSet.getString("table"), resultSet.getString("to")));
+            }
+        }
+        return foreignKeys;
+    }
+
+    private static String foreignKey(String childColumnName, String parentTableName, String parentColumnName) {
+        return (childColumnName + "->" + parentTableName + "." + parentColumnName).toLowerCase(Locale.ROOT);
+    }
+
+    /** Brings a default to one form, so defaults SQLite stores the same way compare equal:
+     * redundant parentheses, TRUE and FALSE, double quoted strings, quoted numbers in numeric columns,
+     * case of keywords and formatting of numbers
+     *
+     * @param affinity - type affinity of the column
+     */
+    protected static String normalize(String defaultValue, String affinity) {
+        if (defaultValue == null) return null;
+        String value = defaultValue.trim();
+        while (isParenthesized(value)) {
+            value = value.substring(1, value.length() - 1).trim();
+        }
+        if (isQuoted(value, '"')) {
+            value = "'" + unquote(value, '"').replace("'", "''") + "'";
+        }
+        if (isQuoted(value, '\'')) {
+            String text = unquote(value, '\'');
+            if (affinity.equals("TEXT") || affinity.equals("BLOB") || normalizeNumber(text) == null) return value;
+            value = text;
+        }
+        String number = normalizeNumber(value);
+        if (number != null) return number;
+        String keyword = value.toUpperCase(Locale.ROOT);
+        if (keyword.equals("NULL")) return null;
+        if (keyword.equals("TRUE")) return "1";
+        if (keyword.equals("FALSE")) return "0";
+        return upperCaseOutsideStrings(value);
+    }
+
+    private static String normalizeNumber(String value) {
+        try {
+            return new BigDecimal(value.trim()).stripTrailingZeros().toPlainString();
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return true if the value is a single literal in the quotes, with every quote inside it doubled
+     */
+    private static boolean isQuoted(String value, char quote) {
+        if (value.length() < 2 || value.charAt(0) != quote || value.charAt(value.length() - 1) != quote) return false;
+        for (int i = 1; i < value.length() - 1; i++) {
+            if (value.charAt(i) != quote) continue;
+            if (value.charAt(i + 1) != quote || i + 1 == value.length() - 1) return false;
+            i++;
+        }
+        return true;
+    }
+
+    private static String unquote(String value, char quote) {
+        String doubled = String.valueOf(quote) + quote;
+        return value.substring(1, value.length() - 1).replace(doubled, String.valueOf(quote));
+    }
+
+    /**
+     * @return true if the whole value is wrapped in one pair of parentheses
+     */
+    private static boolean isParenthesized(String value) {
+        if (value.length() < 2 || value.charAt(0) != '(' || value.charAt(value.length() - 1) != ')') return false;
+        int depth = 0;
+        boolean quoted = false;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\'') quoted = !quoted;
+            if (quoted) continue;
+            if (c == '(') depth++;
+            if (c == ')' && --depth == 0 && i != value.length() - 1) return false;
+        }
+        return depth == 0;
+    }
+
+    private static String upperCaseOutsideStrings(String value) {
+        StringBuilder normalized = new StringBuilder(value.length());
+        boolean quoted = false;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\'') quoted = !quoted;
+            if (!quoted && Character.isWhitespace(c)) {
+                // Runs of whitespace outside of strings are one space
+                if (normalized.length() > 0 && normalized.charAt(normalized.length() - 1) != ' ') normalized.append(' ');
+                continue;
+            }
+            normalized.append(quoted ? c : Character.toUpperCase(c));
+        }
+        return normalized.toString().trim();
+    }
+
+    /**
+     * @return true if the table in the database matches the declared table
+     */
+    public boolean isEmpty() {
+        return this.addedColumns.isEmpty() && this.droppedColumns.isEmpty() && this.renamedColumns.isEmpty()
+                && this.changedColumns.isEmpty() && !this.primaryKeyChanged && !this.foreignKeysChanged;
+    }
+
+    /**
+     * @return true if the changes cannot all be made with ALTER TABLE ADD, DROP and RENAME COLUMN,
+     * so the table has to be copied into a new one
+     */
+    public boolean requiresRebuild() {
+        if (!this.changedColumns.isEmpty() || this.primaryKeyChanged || this.foreignKeysChanged) return true;
+        if (!this.constrainedColumns.isEmpty()) return true;
+        for (Column<?> column : this.addedColumns) {
+            if (!isAddable(column)) return true;
+        }
+        return false;
+    }
+
+    /** SQLite can only add columns without a primary key or unique constraint,
+     * and NOT NULL columns only with a default value
+     */
+    private static boolean isAddable(Column<?> column) {
+        Set<Column.ColumnProperty> properties = column.getColumnProperties();
+        if (properties.contains(Column.ColumnProperty.PRIMARY_KEY) || properties.contains(Column.ColumnProperty.UNIQUE)) return false;
+        return !properties.contains(Column.ColumnProperty.NOT_NULL) || column.getDefaultValueDefinition() != null;
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    public List<Column<?>> getAddedColumns() {
+        return addedColumns;
+    }
+
+    public List<String> getDroppedColumns() {
+        return droppedColumns;
+    }
+
+    /**
+     * @return column name -> description of what changed
+     */
+    public Map<String, String> getChangedColumns() {
+        return changedColumns;
+    }
+
+    /**
+     * @return previous name -> new name of the columns declared with a previous name
+     */
+    public Map<String, String> getRenamedColumns() {
+        return renamedColumns;
+    }
+
+    public boolean isPrimaryKeyChanged() {
+        return primaryKeyChanged;
+    }
+
+    public boolean isForeignKeysChanged() {
+        return foreignKeysChanged;
+    }
+
+    @Override
+    public String toString() {
+        if (this.isEmpty()) return this.tableName + ": unchanged";
+        List<String> parts = new ArrayList<>();
+        if (!this.addedColumns.isEmpty()) {
+            parts.add("added " + this.addedColumns.stream().map(Column::getName).toList());
+        }
+        if (!this.droppedColumns.isEmpty()) parts.add("dropped " + this.droppedColumns);
+        this.renamedColumns.forEach((previousName, name) -> parts.add("renamed " + previousName + " -> " + name));
+        this.changedColumns.forEach((name, change) -> parts.add(name + " " + change));
+        if (this.primaryKeyChanged) parts.add("primary key changed");
+        if (this.foreignKeysChanged) parts.add("foreign keys changed");
+        return this.tableName + ": " + String.join("; ", parts);
+    }
+
+    private record ColumnInfo(String name, String type, boolean notNull, String defaultValue, int primaryKeyIndex) {
+    }
+}
@@ -0,0 +1,148 @@
+package me.vermulst.vermulstutils.data;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+
+/**
+ * Builds table builders for all tables in a database from three queries over sqlite_schema joined with the
+ * table valued PRAGMA functions, independent of the amount of tables and columns.
+ */
+public class SchemaDiscovery {
+
+    private static final String TABLES = "FROM sqlite_schema m " +
+            "%s WHERE m.type = 'table' AND m.name NOT LIKE 'sqlite\\_%%' ESCAPE '\\' AND m.name NOT LIKE 'vsqlite\\_%%' ESCAPE '\\' ";
+
+    private static final String COLUMNS = "SELECT m.name, c.name, c.type, c.\"notnull\", c.dflt_value, c.pk " +
+            TABLES.formatted("JOIN pragma_table_info(m.name) c") +
+            "ORDER BY m.name, c.cid";
+
+    private static final String INDEXES = "SELECT m.name, l.name, l.\"unique\", l.origin, i.name, s.sql " +
+            TABLES.formatted("JOIN pragma_index_list(m.name) l JOIN pragma_index_info(l.name) i " +
+                    "LEFT JOIN sqlite_schema s ON s.type = 'index' AND s.name = l.name") +
+            "AND l.origin IN ('u', 'c') ORDER BY m.name, l.name, i.seqno";
+
+    private static final String FOREIGN_KEYS = "SELECT m.name, f.\"from\", f.\"table\", f.\"to\" " +
+            TABLES.formatted("JOIN pragma_foreign_key_list(m.name) f") +
+            "ORDER BY m.name, f.id, f.seq";
+
+    private SchemaDiscovery() {
+    }
+
+    /**
+     * @return a builder per table, with its columns, foreign keys and indexes, in order of table name
+     * @throws SQLException if a table has no primary key
+     */
+    protected static List<Table.Builder<?>> discover(Connection connection) throws SQLException {
+        Map<String, DiscoveredTable> tables = new LinkedHashMap<>();
+        try (Statement statement = connection.createStatement()) {
+            try (ResultSet resultSet = statement.executeQuery(COLUMNS)) {
+                while (resultSet.next()) {
+                    DiscoveredTable table = tables.computeIfAbsent(resultSet.getString(1), DiscoveredTable::new);
+                    table.columns.add(new DiscoveredColumn(
+                            resultSet.getString(2),
+                            resultSet.getString(3),
+                            Column.getType(resultSet.getString(3)),
+                            resultSet.getInt(4) == 1,
+                            resultSet.getString(5),
+                            resultSet.getInt(6)));
+                }
+            }
+            try (ResultSet resultSet = statement.executeQuery(INDEXES)) {
+                while (resultSet.next()) {
+                    DiscoveredTable table = tables.get(resultSet.getString(1));
+                    if (table == null) continue;
+                    String indexName = resultSet.getString(2);
+                    DiscoveredIndex index = table.indexes.computeIfAbsent(indexName, name -> new DiscoveredIndex());
+                    index.unique = resultSet.getInt(3) == 1;
+                    index.constraint = "u".equals(resultSet.getString(4));
+                    index.where = Index.parseWhere(resultSet.getString(6));
+                    index.columnNames.add(resultSet.getString(5));
+                }
+            }
+            try (ResultSet resultSet = statement.executeQuery(FOREIGN_KEYS)) {
+                while (resultSet.next()) {
+                    DiscoveredTable table = tables.get(resultSet.getString(1));
+                    if (table == null) continue;
+                    table.foreignKeys.add(new ForeignKeyReference(resultSet.getString(2), resultSet.getString(3), resultSet.getString(4)));
+                }
+            }
+        }
+        List<Table.Builder<?>> builders = new ArrayList<>(tables.size());
+        for (DiscoveredTable table : tables.values()) {
+            builders.add(table.toBuilder());
+        }
+        return builders;
+    }
+
+    private static class DiscoveredTable {
+
+        private final String name;
+        private final List<DiscoveredColumn> columns = new ArrayList<>();
+        private final Map<String, DiscoveredIndex> indexes = new LinkedHashMap<>();
+        private final List<ForeignKeyReference> foreignKeys = new ArrayList<>();
+
+        private DiscoveredTable(String name) {
+            this.name = name;
+        }
+
+        private Table.Builder<?> toBuilder() throws SQLException {
+            Set<String> uniqueColumns = new HashSet<>();
+            List<Index> indexes = new ArrayList<>();
+            this.indexes.forEach((indexName, index) -> {
+                if (!index.constraint) {
+                    indexes.add(new Index(indexName, index.columnNames, index.unique, index.where));
+                } else if (index.columnNames.size() == 1) {
+                    uniqueColumns.add(index.columnNames.get(0));
+                }
+            });
+
+            List<DiscoveredColumn> primaryKey = this.columns.stream()
+                    .filter(column -> column.primaryKeyIndex > 0)
+                    .sorted(Comparator.comparingInt(column -> column.primaryKeyIndex))
+                    .toList();
+            Class<?> primaryKeyType;
+            if (primaryKey.size() == 1) {
+                primaryKeyType = primaryKey.get(0).type;
+            } else if (primaryKey.size() > 1) {
+                primaryKeyType = CompositeKey.class;
+            } else {
+                throw new SQLException("No primary key found for table: " + this.name);
+            }
+
+            Table.Builder<?> builder = Table.builder(primaryKeyType).name(this.name);
+            for (DiscoveredColumn column : this.columns) {
+                Column.Builder<?> columnBuilder = columnBuilder(column.type, column);
+                if (column.notNull) columnBuilder.addColumnProperty(Column.ColumnProperty.NOT_NULL);
+                if (column.primaryKeyIndex > 0) columnBuilder.addColumnProperty(Column.ColumnProperty.PRIMARY_KEY);
+                if (uniqueColumns.contains(column.name)) columnBuilder.addColumnProperty(Column.ColumnProperty.UNIQUE);
+                builder.addColumn(columnBuilder);
+            }
+            builder.foreignKeys(this.foreignKeys.toArray(new ForeignKeyReference[0]));
+            builder.indexes(indexes);
+            return builder;
+        }
+    }
+
+    private static <T> Column.Builder<T> columnBuilder(Class<T> type, DiscoveredColumn column) {
+        return Column.builder(type)
+                .name(column.name)
+                .typeName(column.typeName)
+                .defaultValue(type.cast(Column.parseDefaultValue(type, column.defaultValue)))
+                .defaultExpression(column.defaultValue);
+    }
+
+    private record DiscoveredColumn(String name, String typeName, Class<?> type, boolean notNull, String defaultValue, int primaryKeyIndex) {
+    }
+
+    private static class DiscoveredIndex {
+
+        private final List<String> columnNames = new ArrayList<>();
+        private boolean unique;
+        // Created by a UNIQUE constraint instead of CREATE INDEX
+        private boolean constraint;
+        private String where;
+    }
+}
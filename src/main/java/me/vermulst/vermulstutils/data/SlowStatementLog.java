@@ -0,0 +1,107 @@
+package me.vermulst.vermulstutils.data;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reports the statements of loader, saver and deleter operations that take longer than a threshold,
+ * together with the EXPLAIN QUERY PLAN of their SQL. A plan is captured once per SQL shape and kept.
+ * Plans that scan a whole table are flagged, they usually point at a missing index.
+ */
+public class SlowStatementLog {
+
+    private static final System.Logger LOGGER = System.getLogger(SlowStatementLog.class.getName());
+
+    private final long thresholdNanos;
+    private final Listener listener;
+    // SQL -> plan
+    private final Map<String, QueryPlan> plans = new ConcurrentHashMap<>();
+
+    /**
+     * @param listener - receives the slow statements, null to log them
+     */
+    public SlowStatementLog(Duration threshold, Listener listener) {
+        this.thresholdNanos = threshold.toNanos();
+        this.listener = listener != null ? listener : SlowStatementLog::log;
+    }
+
+    /** Runs the action while collecting the statements it prepares, and reports them if it was slow.
+     * Only the outermost action on a connection reports, including the statements of nested actions.
+     */
+    protected <R> DatabaseConnection.SQLAction<R> track(String table, String operation, DatabaseConnection.SQLAction<R> action) {
+        return connection -> {
+            List<String> statements = new ArrayList<>(2);
+            List<String> outer = connection.trackStatements(statements);
+            long start = System.nanoTime();
+            try {
+                return action.run(connection);
+            } finally {
+                long nanos = System.nanoTime() - start;
+                connection.trackStatements(outer);
+                if (outer != null) {
+                    outer.addAll(statements);
+                } else {
+                    this.check(connection, table, operation, statements, nanos);
+                }
+            }
+        };
+    }
+
+    /**
+     * @param statements - SQL of the statements the operation ran
+     * @param nanos - time the operation ran its statements
+     */
+    protected void check(DatabaseConnection connection, String table, String operation, Collection<String> statements, long nanos) {
+        if (nanos < this.thresholdNanos) return;
+        for (String sql : new LinkedHashSet<>(statements)) {
+            QueryPlan plan = this.plans.get(sql);
+            if (plan == null) {
+                try {
+                    plan = QueryPlan.explain(connection.getConnection(), sql);
+                } catch (SQLException e) {
+                    plan = new QueryPlan(sql, List.of("EXPLAIN QUERY PLAN failed: " + e.getMessage()));
+                }
+                this.plans.putIfAbsent(sql, plan);
+            }
+            this.listener.onSlowStatement(new SlowStatement(table, operation, sql, QueryPlan.countParameters(sql), nanos, plan));
+        }
+    }
+
+    public Duration getThreshold() {
+        return Duration.ofNanos(thresholdNanos);
+    }
+
+    /**
+     * @return the plan captured for the SQL, or null if no statement with it was slow
+     */
+    public QueryPlan getPlan(String sql) {
+        return this.plans.get(sql);
+    }
+
+    /**
+     * @return SQL -> plan of every statement that was slow so far
+     */
+    public Map<String, QueryPlan> getPlans() {
+        return Collections.unmodifiableMap(this.plans);
+    }
+
+    private static void log(SlowStatement statement) {
+        LOGGER.log(System.Logger.Level.WARNING, (statement.plan().isScan() ? "Slow statement (SCAN) on " : "Slow statement on ") +
+                statement.table() + "." + statement.operation() + " took " + statement.nanos() / 1_000_000d + " ms with " +
+                statement.parameterCount() + " parameters: " + statement.sql() + " | plan: " + statement.plan());
+    }
+
+    public interface Listener {
+        /** Called on the thread that ran the statement, while it holds the connection
+         */
+        void onSlowStatement(SlowStatement statement);
+    }
+
+    /**
+     * @param nanos - time of the whole operation, which may have run more statements
+     */
+    public record SlowStatement(String table, String operation, String sql, int parameterCount, long nanos, QueryPlan plan) {
+    }
+}
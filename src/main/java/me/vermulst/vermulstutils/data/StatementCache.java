@@ -0,0 +1,95 @@
+package me.vermulst.vermulstutils.data;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Bounded LRU cache of prepared statements belonging to a single connection.
+ * Statements handed out by this cache are owned by it and must not be closed by the caller.
+ */
+public class StatementCache implements AutoCloseable {
+
+    public static final int DEFAULT_CAPACITY = 64;
+
+    private final Connection connection;
+    private final Map<Key, Entry> statements;
+    private long hits;
+    private long misses;
+
+    protected StatementCache(Connection connection, int capacity) {
+        this.connection = connection;
+        this.statements = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                if (this.size() <= capacity) return false;
+                closeQuietly(eldest.getValue().statement);
+                return true;
+            }
+        };
+    }
+
+    /**
+     * @param table - table the statement operates on
+     * @param operation - kind of statement, e.g. "select" or "upsert"
+     * @param columns - columns the statement shape depends on
+     * @param sql - builds the sql, only called on a cache miss
+     */
+    protected PreparedStatement prepare(String table, String operation, List<String> columns, Supplier<String> sql) throws SQLException {
+        return this.prepareEntry(table, operation, columns, sql).statement;
+    }
+
+    /**
+     * @return the cached statement together with its sql
+     */
+    protected synchronized Entry prepareEntry(String table, String operation, List<String> columns, Supplier<String> sql) throws SQLException {
+        Key key = new Key(table, operation, columns);
+        Entry entry = this.statements.get(key);
+        if (entry != null && !entry.statement.isClosed()) {
+            this.hits++;
+            return entry;
+        }
+        this.misses++;
+        String statementSql = sql.get();
+        entry = new Entry(this.connection.prepareStatement(statementSql), statementSql);
+        this.statements.put(key, entry);
+        return entry;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized int size() {
+        return this.statements.size();
+    }
+
+    @Override
+    public synchronized void close() {
+        for (Entry entry : this.statements.values()) {
+            closeQuietly(entry.statement);
+        }
+        this.statements.clear();
+    }
+
+    private static void closeQuietly(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException ignored) {
+        }
+    }
+
+    private record Key(String table, String operation, List<String> columns) {
+    }
+
+    protected record Entry(PreparedStatement statement, String sql) {
+    }
+}
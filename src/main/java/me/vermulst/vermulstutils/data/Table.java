@@ -1,20 +1,35 @@
 package me.vermulst.vermulstutils.data;
 
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.sql.*;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
-
-import static me.vermulst.vermulstutils.data.Column.REVERSED_TYPE_MAP_STRING;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class Table<PK> {
 
+    private static final System.Logger LOGGER = System.getLogger(Table.class.getName());
+
+    /** Keeps a fingerprint of the declared and stored schema per table, so unchanged tables are not introspected
+     */
+    protected static final String SCHEMA_TABLE = "vsqlite_schema";
+
     protected String name;
     protected List<Column<?>> columns = new ArrayList<>();
     protected Class<PK> type;
+    protected RowCache<PK> cache;
+    protected List<Index> indexes = new ArrayList<>();
+    protected int migrationChunkSize = TableMigration.DEFAULT_CHUNK_SIZE;
+    protected TableMigration.ProgressListener migrationListener;
+    protected TableDescriptor descriptor;
+    protected List<Class<?>> mappedTypes = new ArrayList<>();
+    private final Map<Class<?>, RowMapper<PK, ?>> mappers = new ConcurrentHashMap<>();
 
     // Foreign key map: foreign key column -> referenced table
     protected final Set<ForeignKeyReference> foreignKeyReferences = new HashSet<>();
@@ -23,30 +38,122 @@ public class Table<PK> {
         this.type = type;
     }
 
+    @SuppressWarnings("unchecked")
     public <T> Column<T> getColumn(Class<T> columnType, String name) {
-        Optional<Column<?>> columnOptional = columns.stream()
-                .filter(column1 -> name.equalsIgnoreCase(column1.getName()) && column1.getType().equals(columnType))
-                .findFirst();
-        return (Column<T>) columnOptional.orElse(null);
+        Column<?> column = this.getDescriptor().getColumn(name);
+        return column != null && column.getType().equals(columnType) ? (Column<T>) column : null;
     }
 
-    protected void createOrUpdate(Connection connection) {
-        boolean update = false;
-        try (Statement statement = connection.createStatement()) {
-            boolean tableExists = this.tableExists(statement);
-            if (!tableExists) {
+    /**
+     * @return the metadata of the columns this table was built with
+     */
+    public TableDescriptor getDescriptor() {
+        if (this.descriptor == null) this.descriptor = new TableDescriptor(this.name, this.columns);
+        return this.descriptor;
+    }
+
+    /** Maps rows of this table to the given record or POJO type, created once per type
+     *
+     * @throws IllegalArgumentException if the type does not match the columns of this table
+     */
+    @SuppressWarnings("unchecked")
+    public <R> RowMapper<PK, R> mapper(Class<R> type) {
+        return (RowMapper<PK, R>) this.mappers.computeIfAbsent(type, key -> RowMapper.create(this.getDescriptor(), key));
+    }
+
+    protected void createOrUpdate(DatabaseConnection writer) {
+        try {
+            boolean rebuild = writer.execute(connection -> this.createOrAlter(connection.getConnection()));
+            if (!rebuild) return;
+            TableMigration.ProgressListener listener = this.migrationListener != null ? this.migrationListener : TableMigration.log();
+            new TableMigration(this, writer, this.migrationChunkSize, listener).run();
+            writer.execute(connection -> {
+                this.updateIndexes(connection.getConnection());
+                this.writeFingerprint(connection.getConnection());
+                return null;
+            });
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed creating or updating table: " + this.name, e);
+        }
+    }
+
+    /**
+     * @return true if the table has to be rebuilt by a {@link TableMigration}
+     */
+    private boolean createOrAlter(Connection connection) throws SQLException {
+        createSchemaTable(connection);
+        String storedSchema = this.readStoredSchema(connection);
+        if (storedSchema == null) {
+            try (Statement statement = connection.createStatement()) {
                 this.create(statement);
-            } else {
-                boolean tableChanged = this.tableChanged(statement);
-                if (!tableChanged) return;
-                update = true;
             }
-        } catch (SQLException e) {
-            throw new RuntimeException("Failed creating statement for table: " + this.name, e);
+        } else {
+            if (fingerprint(this.getSchemaDefinition(), storedSchema).equals(this.readFingerprint(connection))) return false;
+            if (TableMigration.isPending(connection, this.name)) return true;
+            SchemaDiff diff = SchemaDiff.compare(this, connection);
+            if (!diff.isEmpty()) {
+                LOGGER.log(System.Logger.Level.INFO, "Updating table " + diff);
+                if (this.alter(connection, diff)) return true;
+            }
         }
-        if (update) {
-            System.out.println("updating");
-            this.update(connection);
+        this.updateIndexes(connection);
+        this.writeFingerprint(connection);
+        return false;
+    }
+
+    /** Renames, drops and adds columns with ALTER TABLE
+     *
+     * @return true if SQLite cannot make the remaining changes in place, so the table has to be rebuilt
+     */
+    private boolean alter(Connection connection, SchemaDiff diff) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            for (Map.Entry<String, String> entry : diff.getRenamedColumns().entrySet()) {
+                statement.execute("ALTER TABLE " + this.name + " RENAME COLUMN " + entry.getKey() + " TO " + entry.getValue());
+            }
+            if (diff.requiresRebuild()) return true;
+            try {
+                for (String columnName : diff.getDroppedColumns()) {
+                    this.dropIndexes(connection, statement, columnName);
+                    statement.execute("ALTER TABLE " + this.name + " DROP COLUMN " + columnName);
+                }
+                for (Column<?> column : diff.getAddedColumns()) {
+                    statement.execute("ALTER TABLE " + this.name + " ADD COLUMN " + column.getColumnDefinition());
+                }
+            } catch (SQLException e) {
+                // e.g. a column used by a view or trigger, the copy works from whatever state the table is in now
+                LOGGER.log(System.Logger.Level.WARNING, "Altering table " + this.name + " failed, rebuilding it instead: " + e.getMessage());
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Drops the indexes on a column that is about to be dropped, declared ones are created again afterwards
+     */
+    private void dropIndexes(Connection connection, Statement statement, String columnName) throws SQLException {
+        for (Index index : Index.read(connection, this.name)) {
+            if (index.getColumnNames().stream().anyMatch(columnName::equalsIgnoreCase)) {
+                statement.execute("DROP INDEX " + index.getName());
+            }
+        }
+    }
+
+    /** Drops the indexes that are no longer declared or changed, then creates the missing ones.
+     * A rebuilt table has lost all its indexes, so they are all created again.
+     */
+    private void updateIndexes(Connection connection) {
+        try (Statement statement = connection.createStatement()) {
+            List<Index> existing = Index.read(connection, this.name);
+            for (Index index : existing) {
+                if (this.indexes.contains(index)) continue;
+                statement.execute("DROP INDEX " + index.getName());
+            }
+            for (Index index : this.indexes) {
+                if (existing.contains(index)) continue;
+                statement.execute(index.getStatement(this.name));
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed updating indexes of table: " + this.name, e);
         }
     }
 
@@ -58,137 +165,111 @@ public class Table<PK> {
         }
     }
 
-    private void update(Connection connection) {
-        this.name += "_new";
-        String newTable = this.getCreateStatement();
-        this.name = this.name.substring(0, this.name.length() - 4);
+    /**
+     * Checks if the table structure has changed in the database compared to the defined structure.
+     */
+    public boolean tableChanged(Statement statement) {
         try {
-            this.createNewTable(newTable, connection);
-            this.cutOldTable(connection);
+            return !SchemaDiff.compare(this, statement.getConnection()).isEmpty();
         } catch (SQLException e) {
-            throw new RuntimeException(e);
+            throw new RuntimeException("Failed to get table info: " + this.name, e);
         }
     }
 
-    private boolean tableExists(Statement statement) {
-        String checkTableExistsQuery = "SELECT name FROM sqlite_master WHERE type='table' AND name='" + this.name + "';";
-        try (ResultSet resultSet = statement.executeQuery(checkTableExistsQuery)) {
-            return resultSet.next();
+    /**
+     * @return the differences between this table and the one in the database
+     */
+    public SchemaDiff diff(Connection connection) {
+        try {
+            return SchemaDiff.compare(this, connection);
         } catch (SQLException e) {
-            throw new RuntimeException("Error checking if table exists: " + this.name, e);
+            throw new RuntimeException("Failed to get table info: " + this.name, e);
         }
     }
 
     /**
-     * Checks if the table structure has changed in the database compared to the defined structure.
+     * @return the SQL of the table and its indexes as stored in sqlite_master, or null if the table does not exist
      */
-    public boolean tableChanged(Statement statement) {
-        Set<String> currentColumnNames = new HashSet<>();
-        Set<String> currentColumnTypes = new HashSet<>();
-        Map<String, Set<Column.ColumnProperty>> currentColumnProperties = new HashMap<>();
-        Map<String, Object> defaultValues = new HashMap<>();
-
-        try {
-            ResultSet tableSql = statement.executeQuery("SELECT sql FROM sqlite_master WHERE type='table' AND name='" + this.name + "'");
-            if (!tableSql.next()) {
-                throw new RuntimeException("Table " + this.name + " does not exist in the database.");
-            }
-            String createTableSql = tableSql.getString("sql");
-            // Extract column definitions from the CREATE TABLE statement
-            String columnRegex = "(\\w+)\\s+([\\w\\s]+)(?:DEFAULT\\s+([\\w\\d]+))?";
-            Pattern columnPattern = Pattern.compile(columnRegex);
-            Matcher matcher = columnPattern.matcher(createTableSql);
-            Pattern pkPattern = Pattern.compile("PRIMARY KEY\\s*\\(([^\\)]+)\\)", Pattern.CASE_INSENSITIVE);
-            Matcher primaryKeyMatcher = pkPattern.matcher(createTableSql);
-
-            if (primaryKeyMatcher.find()) {
-                String[] primaryKeyColumns = primaryKeyMatcher.group(1).split(",");
-                for (String primaryKey : primaryKeyColumns) {
-                    primaryKey = primaryKey.trim();
-                    currentColumnProperties.put(primaryKey, new HashSet<>(List.of(Column.ColumnProperty.PRIMARY_KEY)));
-                }
-            }
-
-            while (matcher.find()) {
-                String columnName = matcher.group(1);
-                String[] typeAndConstraints = matcher.group(2).trim().split(" ");
-                if (columnName.equals("PRIMARY") || columnName.equals("CREATE")) continue;
-                currentColumnNames.add(columnName);
-                String columnType = typeAndConstraints[0];
-                currentColumnTypes.add(columnType);
-                int endIndex = typeAndConstraints.length;
-                if (typeAndConstraints.length >= 2 && typeAndConstraints[typeAndConstraints.length - 2].equals("DEFAULT")) {
-                    endIndex -= 2;
-                    String defaultValueString = typeAndConstraints[typeAndConstraints.length - 1];
-                    Class typeCast = REVERSED_TYPE_MAP_STRING.get(columnType);
-                    Method castMethod = typeCast.getDeclaredMethod("valueOf", String.class);
-                    Object defaultValue = castMethod.invoke(typeCast, defaultValueString);
-                    defaultValues.put(columnName, defaultValue);
-                } else {
-                    defaultValues.put(columnName, "NO_DEFAULT");
-                }
-                Set<Column.ColumnProperty> columnProperties = new HashSet<>();
-                for (int i = 1; i < endIndex; i++) {
-                    String type = typeAndConstraints[i];
-                    if ("NOT".equals(type)) {
-                        columnProperties.add(Column.ColumnProperty.NOT_NULL);
-                        i++;
-                    } else if ("UNIQUE".equals(type)) {
-                        columnProperties.add(Column.ColumnProperty.UNIQUE);
-                    }
-                }
-                if (!currentColumnProperties.containsKey(columnName)) {
-                    currentColumnProperties.put(columnName, new HashSet<>());
+    private String readStoredSchema(Connection connection) throws SQLException {
+        StringBuilder builder = null;
+        try (PreparedStatement pstmt = connection.prepareStatement(
+                "SELECT type, name, sql FROM sqlite_master WHERE tbl_name = ? ORDER BY type, name")) {
+            pstmt.setString(1, this.name);
+            try (ResultSet resultSet = pstmt.executeQuery()) {
+                while (resultSet.next()) {
+                    if (builder == null) builder = new StringBuilder();
+                    builder.append(resultSet.getString(1)).append(' ')
+                            .append(resultSet.getString(2)).append(' ')
+                            .append(resultSet.getString(3)).append('\n');
                 }
-                currentColumnProperties.get(columnName).addAll(columnProperties);
             }
-
-        } catch (SQLException e) {
-            throw new RuntimeException("Failed to get table info: " + this.name, e);
-        } catch (NoSuchMethodException e) {
-            throw new RuntimeException(e);
-        } catch (InvocationTargetException e) {
-            throw new RuntimeException(e);
-        } catch (IllegalAccessException e) {
-            throw new RuntimeException(e);
         }
+        return builder != null ? builder.toString() : null;
+    }
 
-        // Compare column names
-        Set<String> definedColumnNames = this.columns.stream()
-                .map(Column::getName)
-                .collect(Collectors.toSet());
-        // Compare column types
-        Set<String> definedColumnTypes = this.columns.stream()
-                .map(Column::getColumnTypeName)
-                .collect(Collectors.toSet());
-
-        Map<String, Set<Column.ColumnProperty>> definedColumnProperties = this.columns.stream()
-                .collect(Collectors.toMap(
-                        Column::getName,                  // Key: column name
-                        Column::getColumnProperties      // Value: column properties
-                ));
+    /**
+     * @return the declared columns, keys and indexes in a form that does not depend on declaration order of properties
+     */
+    protected String getSchemaDefinition() {
+        StringBuilder builder = new StringBuilder(this.name).append('\n');
+        for (Column<?> column : this.columns) {
+            builder.append(column.getName()).append(' ')
+                    .append(column.getColumnTypeName()).append(' ')
+                    .append(new TreeSet<>(column.getColumnProperties())).append(' ')
+                    .append(column.getDefaultValueDefinition()).append('\n');
+        }
+        this.foreignKeyReferences.stream().map(ForeignKeyReference::getStatement).sorted()
+                .forEach(statement -> builder.append(statement).append('\n'));
+        this.indexes.stream().map(index -> index.getStatement(this.name)).sorted()
+                .forEach(statement -> builder.append(statement).append('\n'));
+        return builder.toString();
+    }
 
+    /** Creates the table holding the fingerprints, both new and existing tables read or write it
+     */
+    private static void createSchemaTable(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE IF NOT EXISTS " + SCHEMA_TABLE + " (name TEXT PRIMARY KEY, fingerprint TEXT NOT NULL)");
+        }
+    }
 
-        Map<String, Object> definedDefaultValues = this.columns.stream()
-                .collect(Collectors.toMap(
-                        Column::getName,                  // Key: column name
-                        column -> column.getDefaultValue() != null
-                                ? column.getDefaultValue()
-                                : "NO_DEFAULT"          // Replace null with a placeholder
-                ));
+    private String readFingerprint(Connection connection) throws SQLException {
+        try (PreparedStatement pstmt = connection.prepareStatement("SELECT fingerprint FROM " + SCHEMA_TABLE + " WHERE name = ?")) {
+            pstmt.setString(1, this.name);
+            try (ResultSet resultSet = pstmt.executeQuery()) {
+                return resultSet.next() ? resultSet.getString(1) : null;
+            }
+        }
+    }
 
-        // Compare column names and types to check if any changes occurred
-        boolean namesChanged = !currentColumnNames.equals(definedColumnNames);
-        boolean typesChanged = !currentColumnTypes.equals(definedColumnTypes);
-        boolean propertiesChanged = !currentColumnProperties.equals(definedColumnProperties);
-        boolean defaultValueChanged = !defaultValues.equals(definedDefaultValues);
+    private void writeFingerprint(Connection connection) throws SQLException {
+        String fingerprint = fingerprint(this.getSchemaDefinition(), this.readStoredSchema(connection));
+        try (PreparedStatement pstmt = connection.prepareStatement("INSERT INTO " + SCHEMA_TABLE + " (name, fingerprint) VALUES (?, ?) " +
+                "ON CONFLICT(name) DO UPDATE SET fingerprint = excluded.fingerprint")) {
+            pstmt.setString(1, this.name);
+            pstmt.setString(2, fingerprint);
+            pstmt.executeUpdate();
+        }
+    }
 
-        return namesChanged || typesChanged || propertiesChanged || defaultValueChanged;
+    private static String fingerprint(String definition, String storedSchema) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(definition.getBytes(StandardCharsets.UTF_8));
+            digest.update(storedSchema.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
     }
 
     public String getCreateStatement() {
+        return this.getCreateStatement(this.name);
+    }
+
+    protected String getCreateStatement(String tableName) {
         StringBuilder builder = new StringBuilder();
-        builder.append("CREATE TABLE IF NOT EXISTS ").append(this.name).append(" (");
+        builder.append("CREATE TABLE IF NOT EXISTS ").append(tableName).append(" (");
         int totalSize = this.columns.size();
         int count = 0;
 
@@ -224,10 +305,7 @@ public class Table<PK> {
     }
 
     protected List<String> getPrimaryKeyNames() {
-        return this.columns
-                .stream().filter(Column::isPrimaryKey)
-                .map(Column::getName)
-                .collect(Collectors.toList());
+        return this.getDescriptor().getPrimaryKeyNames();
     }
 
     protected String getForeignKeyConstraints() {
@@ -243,35 +321,11 @@ public class Table<PK> {
     }
 
     protected List<Column<?>> getPrimaryKeyColumns() {
-        return this.columns.stream().filter(Column::isPrimaryKey).collect(Collectors.toList());
-    }
-
-    private void createNewTable(String newTable, Connection connection) throws SQLException {
-        try (Statement statement = connection.createStatement()) {
-            statement.execute(newTable);
-        } catch (SQLException e) {
-            connection.rollback();
-            throw e;
-        }
+        return this.getDescriptor().getPrimaryKeyColumns();
     }
 
-    private void cutOldTable(Connection connection) throws SQLException {
-        try (Statement statement = connection.createStatement()) {
-            this.copyOldTableIntoNew(statement);
-            this.dropTable(statement);
-            this.renameNewTable(statement);
-        } catch (SQLException e) {
-            connection.rollback();
-            throw e;
-        }
-    }
-
-    private void copyOldTableIntoNew(Statement statement) throws SQLException {
-        List<String> columnNames = this.getCopyingColumns(statement);
-        String columns = String.join(", ", columnNames);
-        String copyStatement = "INSERT INTO " + this.name + "_new (" + columns +
-                ") SELECT " + columns + " FROM " + this.name + ";";
-        statement.execute(copyStatement);
+    protected List<Column<?>> getNonPrimaryKeyColumns() {
+        return this.getDescriptor().getNonPrimaryKeyColumns();
     }
 
     protected void dropTable(Statement statement) throws SQLException {
@@ -279,22 +333,6 @@ public class Table<PK> {
         statement.execute(drop);
     }
 
-    private void renameNewTable(Statement statement) throws SQLException {
-        String renameTableSQL = "ALTER TABLE " + this.name + "_new RENAME TO " + this.name + ";";
-        statement.execute(renameTableSQL);
-    }
-
-    private List<String> getCopyingColumns(Statement statement) throws SQLException {
-        List<String> columnNames = this.columns.stream().map(Column::getName).collect(Collectors.toList());
-        ResultSet oldTableColumns = statement.executeQuery("PRAGMA table_info(" + this.name + ")");
-        Set<String> oldTableColumnNames = new HashSet<>();
-        while (oldTableColumns.next()) {
-            oldTableColumnNames.add(oldTableColumns.getString("name"));
-        }
-        columnNames.removeIf(columnName -> !oldTableColumnNames.contains(columnName));
-        return columnNames;
-    }
-
     public String getName() {
         return name;
     }
@@ -307,10 +345,24 @@ public class Table<PK> {
         return type;
     }
 
+    /**
+     * @return the row cache, or null if the table has none
+     */
+    public RowCache<PK> getCache() {
+        return cache;
+    }
+
+    public List<Index> getIndexes() {
+        return indexes;
+    }
+
     public Builder<PK> toBuilder() {
         return new Builder<>(this.type)
                 .name(this.name)
-                .columns(columns);
+                .columns(columns)
+                .indexes(indexes)
+                .migration(migrationChunkSize, migrationListener)
+                .mappers(mappedTypes.toArray(new Class<?>[0]));
     }
 
     @Override
@@ -355,102 +407,78 @@ public class Table<PK> {
         private final Class<PK> primaryKeyType;
 
         private Set<ForeignKeyReference> foreignKeyReferences = new HashSet<>();
+        private List<Index> indexes = new ArrayList<>();
+        private int migrationChunkSize = TableMigration.DEFAULT_CHUNK_SIZE;
+        private TableMigration.ProgressListener migrationListener;
+        private long cacheWeight;
+        private RowCache.Weigher<PK> cacheWeigher;
+        private List<Class<?>> mappedTypes = new ArrayList<>();
 
         private Builder(Class<PK> primaryKeyType) {
             this.primaryKeyType = primaryKeyType;
         }
 
-        protected Builder<PK> findColumns(Connection connection) {
-            try {
-                DatabaseMetaData metaData = connection.getMetaData();
-                ResultSet rs = metaData.getColumns(null, null, name, "%");
-
-                while (rs.next()) {
-                    String columnName = rs.getString("COLUMN_NAME");
-                    int dataType = rs.getInt("DATA_TYPE");
-                    if ("BIGINT".equalsIgnoreCase(rs.getString("TYPE_NAME")) && dataType == 4) {
-                        dataType = Types.BIGINT; // Correct the type
-                    }
-                    boolean isNotNull = rs.getInt("NULLABLE") == DatabaseMetaData.columnNoNulls;
-                    boolean isPrimaryKey = isPrimaryKey(connection, columnName);
-                    boolean isUnique = isUnique(connection, columnName);
-
-                    Column.Builder columnBuilder = Column.builder(Column.REVERSED_TYPE_MAP.get(dataType))
-                            .name(columnName);
-
-                    if (isNotNull) columnBuilder.addColumnProperty(Column.ColumnProperty.NOT_NULL);
-                    if (isPrimaryKey) columnBuilder.addColumnProperty(Column.ColumnProperty.PRIMARY_KEY);
-                    if (isUnique) columnBuilder.addColumnProperty(Column.ColumnProperty.UNIQUE);
-
-                    // Add the column to the table
-
-                    this.columns.add(columnBuilder.build());
-                }
-
-                rs.close();
-            } catch (SQLException e) {
-                throw new RuntimeException("Failed to retrieve columns for table: " + name, e);
-            }
+        public Builder<PK> foreignKeys(ForeignKeyReference... foreignKeyReferences) {
+            this.foreignKeyReferences = Set.of(foreignKeyReferences);
             return this;
         }
 
-        protected Builder<PK> findForeignKeys(Connection connection) {
-            try {
-                DatabaseMetaData metaData = connection.getMetaData();
-
-                // Query foreign keys for the current table
-                ResultSet foreignKeyRs = metaData.getImportedKeys(null, null, name);
-
-                while (foreignKeyRs.next()) {
-                    String fkColumnName = foreignKeyRs.getString("FKCOLUMN_NAME"); // Child column (foreign key)
-                    String pkTableName = foreignKeyRs.getString("PKTABLE_NAME"); // Referenced table (parent)
-                    String pkColumnName = foreignKeyRs.getString("PKCOLUMN_NAME"); // Parent column (primary key)
-
-                    // Add to the foreign key references set
-                    foreignKeyReferences.add(new ForeignKeyReference(fkColumnName, pkTableName, pkColumnName));
-                }
+        /** Declares a secondary index on the given columns
+         *
+         * @param where - condition of a partial index, null to index all rows
+         */
+        public Builder<PK> index(String name, boolean unique, String where, Column<?>... columns) {
+            List<String> columnNames = Arrays.stream(columns).map(Column::getName).collect(Collectors.toList());
+            return this.index(new Index(name, columnNames, unique, where));
+        }
 
-                foreignKeyRs.close();
+        public Builder<PK> index(String name, Column<?>... columns) {
+            return this.index(name, false, null, columns);
+        }
 
-            } catch (SQLException e) {
-                throw new RuntimeException("Failed to retrieve foreign keys for table: " + name, e);
-            }
+        public Builder<PK> index(Index index) {
+            this.indexes.removeIf(index1 -> index1.getName().equalsIgnoreCase(index.getName()));
+            this.indexes.add(index);
             return this;
         }
 
-        private boolean isUnique(Connection connection, String columnName) throws SQLException {
-            DatabaseMetaData metaData = connection.getMetaData();
-            ResultSet indexRs = metaData.getIndexInfo(null, null, name, true, false);
-
-            while (indexRs.next()) {
-                String indexedColumn = indexRs.getString("COLUMN_NAME");
-                boolean isUnique = !indexRs.getBoolean("NON_UNIQUE");
+        public Builder<PK> indexes(List<Index> indexes) {
+            this.indexes = new ArrayList<>(indexes);
+            return this;
+        }
 
-                if (columnName.equals(indexedColumn) && isUnique) {
-                    indexRs.close();
-                    return true;
-                }
-            }
+        /** Configures how the table is copied when a schema change needs a {@link TableMigration}
+         *
+         * @param chunkSize - rows copied per transaction
+         * @param listener - receives progress after every chunk, null to log it
+         */
+        public Builder<PK> migration(int chunkSize, TableMigration.ProgressListener listener) {
+            if (chunkSize < 1) throw new IllegalArgumentException("Chunk size must be at least 1.");
+            this.migrationChunkSize = chunkSize;
+            this.migrationListener = listener;
+            return this;
+        }
 
-            indexRs.close();
-            return false;
+        /** Keeps up to the given amount of rows in a {@link RowCache}
+         */
+        public Builder<PK> cache(int maximumRows) {
+            return this.cache(maximumRows, (primaryKey, values) -> 1);
         }
 
-        private boolean isPrimaryKey(Connection connection, String columnName) throws SQLException {
-            ResultSet pkResultSet = connection.getMetaData().getPrimaryKeys(null, null, name);
-            while (pkResultSet.next()) {
-                String pkColumnName = pkResultSet.getString("COLUMN_NAME");
-                if (pkColumnName.equals(columnName)) {
-                    pkResultSet.close();
-                    return true;
-                }
-            }
-            pkResultSet.close();
-            return false;
+        /** Keeps rows in a {@link RowCache} until their total weight exceeds the maximum
+         */
+        public Builder<PK> cache(long maximumWeight, RowCache.Weigher<PK> weigher) {
+            if (maximumWeight < 1) throw new IllegalArgumentException("Maximum cache weight must be at least 1.");
+            this.cacheWeight = maximumWeight;
+            this.cacheWeigher = weigher;
+            return this;
         }
 
-        public Builder<PK> foreignKeys(ForeignKeyReference... foreignKeyReferences) {
-            this.foreignKeyReferences = Set.of(foreignKeyReferences);
+        /** Creates the mappers of the given record or POJO types when the table is built,
+         * so a type that does not match the columns fails at startup instead of on first use
+         */
+        public Builder<PK> mappers(Class<?>... types) {
+            this.mappedTypes = List.of(types);
             return this;
         }
 
@@ -500,11 +528,23 @@ public class Table<PK> {
             return columns;
         }
 
-        protected Table build(Connection connection) {
-            Table table = new Table(this.primaryKeyType);
+        protected Table<PK> build(DatabaseConnection writer) {
+            Table<PK> table = new Table<>(this.primaryKeyType);
             table.name = this.name;
             table.columns = this.columns;
-            table.createOrUpdate(connection);
+            table.indexes = this.indexes;
+            table.foreignKeyReferences.addAll(this.foreignKeyReferences);
+            table.migrationChunkSize = this.migrationChunkSize;
+            table.migrationListener = this.migrationListener;
+            table.descriptor = new TableDescriptor(table.name, table.columns);
+            table.mappedTypes = this.mappedTypes;
+            for (Class<?> type : this.mappedTypes) {
+                table.mapper(type);
+            }
+            if (this.cacheWeigher != null) {
+                table.cache = new RowCache<>(table, this.cacheWeight, this.cacheWeigher);
+            }
+            table.createOrUpdate(writer);
             return table;
         }
 
@@ -516,39 +556,406 @@ public class Table<PK> {
 
     public static class Loader<PK> extends TableIO<PK> implements AutoCloseable {
 
+        public static final int DEFAULT_FETCH_SIZE = 1000;
+
+        private int fetchSize = DEFAULT_FETCH_SIZE;
+
         private Loader(Table table) {
             super(table);
         }
 
+        /** Amount of rows streams fetch from SQLite at a time
+         */
+        public Loader<PK> fetchSize(int fetchSize) {
+            if (fetchSize < 1) throw new IllegalArgumentException("Fetch size must be at least 1.");
+            this.fetchSize = fetchSize;
+            return this;
+        }
+
+        @Override
+        protected DatabaseConnection acquire() {
+            return this.database.acquireReader();
+        }
+
+        @Override
+        protected void release(DatabaseConnection connection) {
+            this.database.releaseReader(connection);
+        }
+
         public List<Object> loadRow(PK primaryKey) {
+            return this.loadRow(primaryKey, this.table.getNonPrimaryKeyColumns());
+        }
+
+        /** Load only the given columns of a row
+         *
+         * @param columns - columns to load
+         * @return values in same order to the columns, all null if the row does not exist
+         */
+        public List<Object> loadRow(PK primaryKey, Column<?>... columns) {
+            return this.loadRow(primaryKey, List.of(columns));
+        }
+
+        public List<Object> loadRow(PK primaryKey, List<Column<?>> columns) {
             if (this.isDisconnected()) return null;
-            List<Object> values = new ArrayList<>();
-            for (Column column : this.table.getColumns()) {
-                if (column.isPrimaryKey()) continue;
-                values.add(this.loadValue(column, primaryKey));
+            List<Object> values = new ArrayList<>(columns.size());
+            if (columns.isEmpty()) return values;
+            if (this.cache != null) {
+                List<Object> cached = this.cache.get(primaryKey, columns);
+                if (cached != null) return cached;
+            }
+            List<String> columnNames = this.descriptor.getColumnNames(columns);
+            boolean found;
+            try {
+                found = this.execute("loadRow", connection -> {
+                    PreparedStatement statement = this.prepare(connection, "select", columnNames, () ->
+                            this.descriptor.getSelectStatement(columnNames));
+                    this.bindPrimaryKey(statement, primaryKey, 1);
+                    try (ResultSet result = statement.executeQuery()) {
+                        boolean next = result.next();
+                        for (int i = 0; i < columns.size(); i++) {
+                            values.add(next ? this.readValue(result, i + 1, columns.get(i)) : null);
+                        }
+                        return next;
+                    }
+                });
+            } catch (SQLException e) {
+                throw new RuntimeException("Failed loading row", e);
+            }
+            if (this.cache != null) {
+                if (found) return this.cache.put(primaryKey, columns, values);
+                // Saved through the cache but not written yet
+                List<Object> pending = this.cache.getPending(primaryKey, columns);
+                if (pending != null) return pending;
             }
             return values;
         }
 
-        public <T> T loadValue(Column<T> column, PK primaryKey) {
+        /** Load a row into a record or POJO through the {@link RowMapper} of the type
+         *
+         * @return the mapped row, null if the row does not exist
+         */
+        public <R> R loadAs(PK primaryKey, Class<R> type) {
             if (this.isDisconnected()) return null;
-            StringBuilder sql = new StringBuilder("SELECT ");
-            sql.append(column.getName()).append(" FROM ").append(this.table.name);
-            sql.append(this.getPrimaryKeyCondition(primaryKey));
-            try (Statement statement = connection.createStatement()) {
-                ResultSet result = statement.executeQuery(sql.toString());
-                if (result.next()) {
-                    try {
-                        return result.getObject(1, column.getType()); // Use conversion
-                    } catch (SQLException e) {
-                        if (result.wasNull()) { // Check explicitly for NULL handling
-                            return null;
+            RowMapper<PK, R> mapper = this.table.mapper(type);
+            List<Column<?>> columns = mapper.getValueColumns();
+            if (columns.isEmpty()) return this.entryExists(primaryKey) ? mapper.create(primaryKey, new Object[0]) : null;
+            if (this.cache != null) {
+                List<Object> cached = this.cache.get(primaryKey, columns);
+                if (cached != null) return mapper.create(primaryKey, cached.toArray());
+            }
+            List<String> columnNames = mapper.getValueColumnNames();
+            Object[] values;
+            try {
+                values = this.execute("loadAs", row -> row != null ? 1 : 0, connection -> {
+                    PreparedStatement statement = this.prepare(connection, "select", columnNames, () ->
+                            this.descriptor.getSelectStatement(columnNames));
+                    this.bindPrimaryKey(statement, primaryKey, 1);
+                    try (ResultSet result = statement.executeQuery()) {
+                        if (!result.next()) return null;
+                        Object[] row = new Object[columns.size()];
+                        for (int i = 0; i < row.length; i++) {
+                            row[i] = this.readValue(result, i + 1, columns.get(i));
+                        }
+                        return row;
+                    }
+                });
+            } catch (SQLException e) {
+                throw new RuntimeException("Failed loading row", e);
+            }
+            if (this.cache != null) {
+                if (values == null) {
+                    List<Object> pending = this.cache.getPending(primaryKey, columns);
+                    return pending != null ? mapper.create(primaryKey, pending.toArray()) : null;
+                }
+                values = this.cache.put(primaryKey, columns, Arrays.asList(values)).toArray();
+            }
+            if (values == null) return null;
+            return mapper.create(primaryKey, values);
+        }
+
+        public <R> CompletableFuture<R> loadAsAsync(PK primaryKey, Class<R> type) {
+            return this.async(primaryKey, () -> {
+                this.flushQueued(List.of(primaryKey));
+                return this.loadAs(primaryKey, type);
+            });
+        }
+
+        /** Load the rows of multiple keys, using chunked IN queries
+         *
+         * @param primaryKeys - keys of the rows to load
+         * @return Key = primary key, value = values in same order to the non primary key columns.
+         * Keys that do not exist are left out.
+         */
+        public Map<PK, List<Object>> loadRows(Collection<PK> primaryKeys) {
+            Map<PK, List<Object>> rows = new HashMap<>();
+            if (this.isDisconnected() || primaryKeys.isEmpty()) return rows;
+            this.flushCache();
+            List<Column<?>> primaryKeyColumns = this.table.getPrimaryKeyColumns();
+            List<Column<?>> columns = this.table.getNonPrimaryKeyColumns();
+            List<String> columnNames = new ArrayList<>(this.table.getPrimaryKeyNames());
+            for (Column<?> column : columns) {
+                columnNames.add(column.getName());
+            }
+            String selection = String.join(", ", columnNames);
+            try {
+                this.execute("loadRows", connection -> {
+                    for (List<PK> chunk : this.chunkPrimaryKeys(primaryKeys)) {
+                        PreparedStatement statement = this.prepare(connection, "selectIn" + chunk.size(), columnNames, () ->
+                                "SELECT " + selection + " FROM " + this.table.name + this.getPrimaryKeyInCondition(chunk.size()));
+                        this.bindPrimaryKeys(statement, chunk, 1);
+                        try (ResultSet result = statement.executeQuery()) {
+                            while (result.next()) {
+                                List<Object> values = new ArrayList<>(columns.size());
+                                int index = primaryKeyColumns.size() + 1;
+                                for (Column<?> column : columns) {
+                                    values.add(this.readValue(result, index++, column));
+                                }
+                                rows.put(this.readPrimaryKey(result, 1), values);
+                            }
                         }
-                        throw e; // Rethrow other SQLExceptions
                     }
+                    return rows;
+                });
+            } catch (SQLException e) {
+                throw new RuntimeException("Failed loading rows", e);
+            }
+            return rows;
+        }
+
+        public CompletableFuture<List<Object>> loadRowAsync(PK primaryKey) {
+            return this.async(primaryKey, () -> {
+                this.flushQueued(List.of(primaryKey));
+                return this.loadRow(primaryKey);
+            });
+        }
+
+        public CompletableFuture<List<Object>> loadRowAsync(PK primaryKey, Column<?>... columns) {
+            return this.async(primaryKey, () -> {
+                this.flushQueued(List.of(primaryKey));
+                return this.loadRow(primaryKey, columns);
+            });
+        }
+
+        /** Ordered after earlier async calls for any of the keys
+         */
+        public CompletableFuture<Map<PK, List<Object>>> loadRowsAsync(Collection<PK> primaryKeys) {
+            return this.async(primaryKeys, () -> {
+                this.flushQueued(primaryKeys);
+                return this.loadRows(primaryKeys);
+            });
+        }
+
+        /** Lazily iterates all rows of the table without loading them into memory.
+         * The stream holds a read connection until it is exhausted or closed, so use it in a try-with-resources.
+         *
+         * @param columns - columns to select, all non primary key columns if none are given
+         */
+        public Stream<Row<PK>> stream(Column<?>... columns) {
+            if (this.isDisconnected()) return Stream.empty();
+            this.flushCache();
+            List<Column<?>> selected = columns.length == 0 ? this.table.getNonPrimaryKeyColumns() : List.of(columns);
+            List<String> columnNames = new ArrayList<>(this.table.getPrimaryKeyNames());
+            for (Column<?> column : selected) {
+                columnNames.add(column.getName());
+            }
+            String sql = "SELECT " + String.join(", ", columnNames) + " FROM " + this.table.name;
+            int valueIndex = this.table.getPrimaryKeyNames().size() + 1;
+            return this.stream(sql, List.of(), resultSet -> {
+                List<Object> values = new ArrayList<>(selected.size());
+                int index = valueIndex;
+                for (Column<?> column : selected) {
+                    values.add(this.readValue(resultSet, index++, column));
+                }
+                return new Row<>(this.readPrimaryKey(resultSet, 1), selected, values);
+            });
+        }
+
+        /** Starts a query that filters, orders and limits rows in SQLite
+         */
+        public Query<PK> query() {
+            return new Query<>(this, this.table);
+        }
+
+        /**
+         * @return amount of rows in the table, use {@link Query#count()} to count matching rows
+         */
+        public long count() {
+            return this.query().count();
+        }
+
+        public long sumLong(Column<? extends Number> column) {
+            return this.query().sumLong(column);
+        }
+
+        public double sumDouble(Column<? extends Number> column) {
+            return this.query().sumDouble(column);
+        }
+
+        public Double avg(Column<? extends Number> column) {
+            return this.query().avg(column);
+        }
+
+        public <T> T min(Column<T> column) {
+            return this.query().min(column);
+        }
+
+        public <T> T max(Column<T> column) {
+            return this.query().max(column);
+        }
+
+        public <G> Query.Grouping<PK, G> groupBy(Column<G> column) {
+            return this.query().groupBy(column);
+        }
+
+        /** Calls the consumer for every row of the table, holding only one row in memory at a time
+         *
+         * @param columns - columns to select, all non primary key columns if none are given
+         */
+        public void forEach(RowConsumer<PK> consumer, Column<?>... columns) {
+            try (Stream<Row<PK>> rows = this.stream(columns)) {
+                rows.forEach(row -> consumer.accept(row.getPrimaryKey(), row.getValues()));
+            }
+        }
+
+        /** Runs the query on its own statement and reads rows from it as the stream is consumed.
+         * The statement is closed and the reader released when the stream ends or is closed.
+         */
+        protected <R> Stream<R> stream(String sql, List<Object> parameters, ResultReader<R> reader) {
+            return this.stream(null, sql, parameters, reader);
+        }
+
+        /**
+         * @param operation - operation the statement is cached under by its SQL, null to prepare a statement for this stream only
+         */
+        protected <R> Stream<R> stream(String operation, String sql, List<Object> parameters, ResultReader<R> reader) {
+            Cursor cursor = new Cursor(this.database, this.table.name, operation != null ? operation : "stream");
+            cursor.connection = this.acquire();
+            try {
+                if (operation != null) {
+                    // The cursor holds the connection, so no one else uses the cached statement until the stream ends
+                    cursor.statement = this.prepare(cursor.connection, operation, List.of(sql), () -> sql);
+                    cursor.cached = true;
                 } else {
-                    return null;
+                    cursor.statement = cursor.connection.getConnection().prepareStatement(sql);
+                }
+                cursor.statement.setFetchSize(this.fetchSize);
+                for (int i = 0; i < parameters.size(); i++) {
+                    cursor.statement.setObject(i + 1, parameters.get(i));
+                }
+                long start = System.nanoTime();
+                cursor.resultSet = cursor.statement.executeQuery();
+                // Only the query is measured, the stream is open as long as the caller consumes it
+                SlowStatementLog slowStatementLog = this.database.getSlowStatementLog();
+                if (slowStatementLog != null) {
+                    slowStatementLog.check(cursor.connection, this.table.name, cursor.operation, List.of(sql), System.nanoTime() - start);
                 }
+            } catch (SQLException e) {
+                cursor.failed = true;
+                cursor.close();
+                throw new RuntimeException("Failed streaming rows", e);
+            }
+            Spliterator<R> spliterator = new Spliterators.AbstractSpliterator<>(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+                @Override
+                public boolean tryAdvance(Consumer<? super R> action) {
+                    if (cursor.closed) return false;
+                    try {
+                        if (!cursor.resultSet.next()) {
+                            cursor.close();
+                            return false;
+                        }
+                        action.accept(reader.read(cursor.resultSet));
+                        cursor.rows++;
+                        return true;
+                    } catch (SQLException e) {
+                        cursor.failed = true;
+                        cursor.close();
+                        throw new RuntimeException("Failed streaming rows", e);
+                    }
+                }
+            };
+            return StreamSupport.stream(spliterator, false).onClose(cursor::close);
+        }
+
+        public <T> CompletableFuture<T> loadValueAsync(Column<T> column, PK primaryKey) {
+            return this.async(primaryKey, () -> {
+                this.flushQueued(List.of(primaryKey));
+                return this.loadValue(column, primaryKey);
+            });
+        }
+
+        /** Not ordered against async writes of single keys
+         */
+        public <T> CompletableFuture<Map<PK, T>> loadColumnAsync(Column<T> column) {
+            return this.async(() -> this.loadColumn(column));
+        }
+
+        public interface RowConsumer<PK> {
+            void accept(PK primaryKey, List<Object> values);
+        }
+
+        protected interface ResultReader<R> {
+            R read(ResultSet resultSet) throws SQLException;
+        }
+
+        private interface ResultConsumer {
+            void accept(ResultSet resultSet, int valueIndex) throws SQLException;
+        }
+
+        private static class Cursor {
+
+            // Kept so the reader is released even if the loader is disconnected before the stream ends
+            private final Database database;
+            private final String table;
+            private final String operation;
+            private final long start;
+            private DatabaseConnection connection;
+            private PreparedStatement statement;
+            private ResultSet resultSet;
+            // Owned by the statement cache of the connection, only the result set is closed
+            private boolean cached;
+            private boolean closed;
+            private long rows;
+            private boolean failed;
+
+            private Cursor(Database database, String table, String operation) {
+                this.database = database;
+                this.table = table;
+                this.operation = operation;
+                this.start = database.getMetrics().isEnabled() ? System.nanoTime() : 0;
+            }
+
+            private void close() {
+                if (this.closed) return;
+                this.closed = true;
+                try {
+                    if (this.resultSet != null) this.resultSet.close();
+                    if (this.statement != null && !this.cached) this.statement.close();
+                } catch (SQLException ignored) {
+                } finally {
+                    this.database.releaseReader(this.connection);
+                    Metrics metrics = this.database.getMetrics();
+                    if (metrics.isEnabled() && this.start != 0) {
+                        metrics.record(this.table, this.operation, System.nanoTime() - this.start, this.rows, this.failed);
+                    }
+                }
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        public <T> T loadValue(Column<T> column, PK primaryKey) {
+            if (this.isDisconnected()) return null;
+            if (this.cache != null) return (T) this.loadRow(primaryKey, List.of(column)).get(0);
+            try {
+                return this.execute("loadValue", value -> value != null ? 1 : 0, connection -> {
+                    List<String> columnNames = List.of(column.getName());
+                    PreparedStatement statement = this.prepare(connection, "select", columnNames, () ->
+                            this.descriptor.getSelectStatement(columnNames));
+                    this.bindPrimaryKey(statement, primaryKey, 1);
+                    try (ResultSet result = statement.executeQuery()) {
+                        if (!result.next()) return null;
+                        return this.readValue(result, 1, column);
+                    }
+                });
             } catch (SQLException e) {
                 throw new RuntimeException("Failed loading value", e);
             }
@@ -557,31 +964,91 @@ public class Table<PK> {
         public <T> Map<PK, T> loadColumn(Column<T> column) {
             Map<PK, T> resultMap = new HashMap<>();
             if (this.isDisconnected()) return resultMap;
+            this.flushCache();
             Class<T> columnType = column.getType();
             List<String> primaryKeys = this.table.getPrimaryKeyNames();
             String primaryKeyNames = String.join(", ", primaryKeys);
             String columnName = column.getName();
-            String sql = "SELECT " + primaryKeyNames + ", " + columnName + " FROM " + this.table.name;
-            try (PreparedStatement pstmt = connection.prepareStatement(sql);
-                 ResultSet rs = pstmt.executeQuery()) {
-                while (rs.next()) {
-                    List<Object> results = primaryKeys.stream().map(primaryKey -> {
-                        try {
-                            return rs.getObject(primaryKey);
-                        } catch (SQLException e) {
-                            throw new RuntimeException("Error fetching primary key", e);
+            try {
+                this.execute("loadColumn", connection -> {
+                    try (ResultSet rs = this.prepare(connection, "selectColumn", List.of(columnName), () ->
+                            "SELECT " + primaryKeyNames + ", " + columnName + " FROM " + this.table.name).executeQuery()) {
+                        while (rs.next()) {
+                            List<Object> results = primaryKeys.stream().map(primaryKey -> {
+                                try {
+                                    return rs.getObject(primaryKey);
+                                } catch (SQLException e) {
+                                    throw new RuntimeException("Error fetching primary key", e);
+                                }
+                            }).toList();
+                            T columnValue = rs.getObject(columnName, columnType);
+                            PK primaryKey = results.size() > 1 ? (PK) results : results.size() == 1 ? (PK) results.get(0) : null;
+                            if (primaryKey == null) continue;
+                            resultMap.put(primaryKey, columnValue);
                         }
-                    }).toList();
-                    T columnValue = rs.getObject(columnName, columnType);
-                    PK primaryKey = results.size() > 1 ? (PK) results : results.size() == 1 ? (PK) results.get(0) : null;
-                    if (primaryKey == null) continue;
-                    resultMap.put(primaryKey, columnValue);
-                }
+                    }
+                    return resultMap;
+                });
             } catch (SQLException e) {
                 throw new RuntimeException("Error executing query", e);
             }
             return resultMap;
         }
+
+        /** Loads an integer column with getLong, without boxing the values.
+         * Rows where the column is NULL are left out.
+         */
+        public ObjectLongMap<PK> loadLongColumn(Column<? extends Number> column) {
+            Class<?> type = column.getType();
+            if (type != Long.class && type != Integer.class && type != Short.class) {
+                throw new IllegalArgumentException("Column " + column.getName() + " is not an integer column.");
+            }
+            ObjectLongMap<PK> values = new ObjectLongMap<>();
+            this.loadPrimitiveColumn(column, (resultSet, valueIndex) -> {
+                long value = resultSet.getLong(valueIndex);
+                if (!resultSet.wasNull()) values.put(this.readPrimaryKey(resultSet, 1), value);
+            });
+            return values;
+        }
+
+        /** Loads a decimal column with getDouble, without boxing the values.
+         * Rows where the column is NULL are left out.
+         */
+        public ObjectDoubleMap<PK> loadDoubleColumn(Column<? extends Number> column) {
+            Class<?> type = column.getType();
+            if (type != Double.class && type != Float.class) {
+                throw new IllegalArgumentException("Column " + column.getName() + " is not a decimal column.");
+            }
+            ObjectDoubleMap<PK> values = new ObjectDoubleMap<>();
+            this.loadPrimitiveColumn(column, (resultSet, valueIndex) -> {
+                double value = resultSet.getDouble(valueIndex);
+                if (!resultSet.wasNull()) values.put(this.readPrimaryKey(resultSet, 1), value);
+            });
+            return values;
+        }
+
+        private void loadPrimitiveColumn(Column<?> column, ResultConsumer consumer) {
+            if (this.isDisconnected()) return;
+            this.flushCache();
+            String primaryKeyNames = String.join(", ", this.table.getPrimaryKeyNames());
+            String columnName = column.getName();
+            int valueIndex = this.table.getPrimaryKeyNames().size() + 1;
+            try {
+                this.execute("loadColumn", connection -> {
+                    int rows = 0;
+                    try (ResultSet resultSet = this.prepare(connection, "selectColumn", List.of(columnName), () ->
+                            "SELECT " + primaryKeyNames + ", " + columnName + " FROM " + this.table.name).executeQuery()) {
+                        while (resultSet.next()) {
+                            consumer.accept(resultSet, valueIndex);
+                            rows++;
+                        }
+                    }
+                    return rows;
+                });
+            } catch (SQLException e) {
+                throw new RuntimeException("Error loading column " + columnName, e);
+            }
+        }
     }
 
 
@@ -593,28 +1060,14 @@ public class Table<PK> {
 
         public void saveEntry(PK primaryKey) {
             if (this.isDisconnected()) return;
-            boolean exists = this.entryExists(primaryKey);
-            if (exists) return;
-            List<String> primaryKeyNames = this.table.getPrimaryKeyNames();
-            if (primaryKeyNames.size() != this.table.getPrimaryKeySize(primaryKey)) {
-                throw new IllegalArgumentException("Primary key values do not match the number of primary key columns.");
-            }
-            StringBuilder sql = new StringBuilder("INSERT INTO ");
-            sql.append(this.table.name).append(" (");
-            sql.append(String.join(", ", primaryKeyNames));
-            sql.append(") VALUES (");
-            sql.append("?, ".repeat(Math.max(0, primaryKeyNames.size() - 1)));
-            sql.append("?)");
-            try (PreparedStatement pstmt = connection.prepareStatement(sql.toString())) {
-                int index = 1;
-                List<Object> keys = this.table.getPrimaryKeyObjects(primaryKey);
-                for (Object primaryKeyValue : keys) {
-                    pstmt.setObject(index++, primaryKeyValue);
-                }
-                pstmt.executeUpdate();
-            } catch (SQLException e) {
-                throw new RuntimeException("Error inserting new entry into the table", e);
-            }
+            this.write(primaryKey, List.of(), List.of());
+        }
+
+        public CompletableFuture<Void> saveEntryAsync(PK primaryKey) {
+            return this.async(primaryKey, () -> {
+                this.saveEntry(primaryKey);
+                return null;
+            });
         }
 
         /** Insert values into a column vertically
@@ -650,39 +1103,315 @@ public class Table<PK> {
          */
         public void saveRow(PK primaryKey, List<Column<?>> columns, List<Object> values) {
             if (this.isDisconnected()) return;
-            this.saveEntry(primaryKey);
+            List<Column<?>> valueColumns = this.getValueColumns(columns);
+            this.checkValues(valueColumns, values);
+            this.write(primaryKey, valueColumns, values);
+        }
+
+        /** Save a record or POJO through the {@link RowMapper} of its type, the primary key is read from the row
+         */
+        @SuppressWarnings("unchecked")
+        public <R> void save(R row) {
+            if (this.isDisconnected()) return;
+            RowMapper<PK, R> mapper = this.table.mapper((Class<R>) row.getClass());
+            this.write(mapper.getPrimaryKey(row), mapper.getValueColumns(), Arrays.asList(mapper.getValues(row)));
+        }
+
+        @SuppressWarnings("unchecked")
+        public <R> CompletableFuture<Void> saveAsync(R row) {
+            RowMapper<PK, R> mapper = this.table.mapper((Class<R>) row.getClass());
+            return this.async(mapper.getPrimaryKey(row), () -> {
+                this.save(row);
+                return null;
+            });
+        }
+
+        public CompletableFuture<Void> saveRowAsync(PK primaryKey, List<Object> values) {
+            return this.async(primaryKey, () -> {
+                this.saveRow(primaryKey, values);
+                return null;
+            });
+        }
+
+        public CompletableFuture<Void> saveRowAsync(PK primaryKey, List<Column<?>> columns, List<Object> values) {
+            return this.async(primaryKey, () -> {
+                this.saveRow(primaryKey, columns, values);
+                return null;
+            });
+        }
+
+        /** Insert multiple rows horizontally using a single batched upsert
+         *
+         * @param rows - Key = primary key, value = values in same order to the columns
+         */
+        public void saveRows(Map<PK, List<Object>> rows) {
+            this.saveRows(this.table.getColumns(), rows);
+        }
+
+        /** Insert multiple rows horizontally using a single batched upsert
+         *
+         * @param columns - columns to insert into
+         * @param rows - Key = primary key, value = values in same order to the columns
+         */
+        public void saveRows(List<Column<?>> columns, Map<PK, List<Object>> rows) {
+            if (this.isDisconnected() || rows.isEmpty()) return;
+            List<Column<?>> valueColumns = this.getValueColumns(columns);
+            for (List<Object> values : rows.values()) {
+                this.checkValues(valueColumns, values);
+            }
+            if (this.cache != null || this.writeBehind != null) {
+                for (Map.Entry<PK, List<Object>> entry : rows.entrySet()) {
+                    this.write(entry.getKey(), valueColumns, entry.getValue());
+                }
+                return;
+            }
+            try {
+                this.execute("saveRows", connection -> {
+                    int written = 0;
+                    for (PreparedStatement pstmt : this.prepareWrite(connection, valueColumns)) {
+                        for (Map.Entry<PK, List<Object>> entry : rows.entrySet()) {
+                            this.bindRow(pstmt, entry.getKey(), entry.getValue());
+                            pstmt.addBatch();
+                        }
+                        written += sum(pstmt.executeBatch());
+                    }
+                    return written;
+                });
+            } catch (SQLException e) {
+                throw new RuntimeException("Error saving rows into the table", e);
+            }
+        }
+
+        private List<Column<?>> getValueColumns(List<Column<?>> columns) {
+            if (columns == this.table.columns || columns == this.descriptor.getColumns()) return this.descriptor.getNonPrimaryKeyColumns();
             columns = new ArrayList<>(columns);
-            columns.removeAll(this.table.getPrimaryKeyColumns());
+            columns.removeAll(this.descriptor.getPrimaryKeyColumns());
+            return columns;
+        }
+
+        private void checkValues(List<Column<?>> columns, List<Object> values) {
             if (columns.size() != values.size()) {
                 throw new IllegalArgumentException("Inserted values do not match the number of columns.");
             }
             for (int i = 0; i < columns.size(); i++) {
-                Column<?> column = columns.get(i);
-                Object value = values.get(i);
-                if (!column.getType().isInstance(value)) {
+                if (!columns.get(i).getType().isInstance(values.get(i))) {
                     throw new IllegalArgumentException("Value type does not match the column type.");
                 }
-                this.saveValue((Column<Object>) column, primaryKey, value);
             }
         }
 
-        public <T> void saveValue(Column<T> column, PK primaryKey, T value) {
+        /** Saves an integer value without boxing it, unless it goes through the row cache or write-behind queue
+         */
+        public void saveLong(Column<? extends Number> column, PK primaryKey, long value) {
             if (this.isDisconnected()) return;
-            this.saveEntry(primaryKey);
-            List<String> primaryKeyNames = this.table.getPrimaryKeyNames();
-            if (primaryKeyNames.size() != this.table.getPrimaryKeySize(primaryKey)) {
-                throw new IllegalArgumentException("Primary key values do not match the number of primary key columns.");
+            checkLong(column, value);
+            if (this.cache != null || this.writeBehind != null) {
+                this.write(primaryKey, List.of(column), List.of(boxLong(column, value)));
+                return;
+            }
+            this.checkPrimaryKey(primaryKey);
+            try {
+                this.execute("saveLong", connection -> {
+                    int written = 0;
+                    for (PreparedStatement pstmt : this.prepareWrite(connection, List.of(column))) {
+                        pstmt.setLong(this.bindPrimaryKey(pstmt, primaryKey, 1), value);
+                        written += pstmt.executeUpdate();
+                    }
+                    return written;
+                });
+            } catch (SQLException e) {
+                throw new RuntimeException("Error inserting value into the table", e);
+            }
+        }
+
+        /** Saves an integer column in one batched upsert, binding the values with setLong
+         */
+        public void saveLongColumn(Column<? extends Number> column, ObjectLongMap<PK> values) {
+            if (this.isDisconnected() || values.isEmpty()) return;
+            values.forEach((primaryKey, value) -> checkLong(column, value));
+            if (this.cache != null || this.writeBehind != null) {
+                values.forEach((primaryKey, value) -> this.write(primaryKey, List.of(column), List.of(boxLong(column, value))));
+                return;
+            }
+            try {
+                this.execute("saveLongColumn", connection -> {
+                    int written = 0;
+                    for (PreparedStatement pstmt : this.prepareWrite(connection, List.of(column))) {
+                        values.forEach((primaryKey, value) -> {
+                            try {
+                                pstmt.setLong(this.bindPrimaryKey(pstmt, primaryKey, 1), value);
+                                pstmt.addBatch();
+                            } catch (SQLException e) {
+                                throw new RuntimeException("Error binding value for key " + primaryKey, e);
+                            }
+                        });
+                        written += sum(pstmt.executeBatch());
+                    }
+                    return written;
+                });
+            } catch (SQLException e) {
+                throw new RuntimeException("Error saving column into the table", e);
+            }
+        }
+
+        /** Saves a decimal value without boxing it, unless it goes through the row cache or write-behind queue
+         */
+        public void saveDouble(Column<? extends Number> column, PK primaryKey, double value) {
+            if (this.isDisconnected()) return;
+            checkDouble(column, value);
+            if (this.cache != null || this.writeBehind != null) {
+                this.write(primaryKey, List.of(column), List.of(boxDouble(column, value)));
+                return;
             }
-            StringBuilder sql = new StringBuilder("UPDATE ");
-            sql.append(this.table.name).append(" SET ");
-            sql.append(column.getName()).append(" = ").append(value);
-            sql.append(this.getPrimaryKeyCondition(primaryKey));
-            try (Statement statement = this.connection.createStatement()) {
-                statement.executeUpdate(sql.toString());
+            this.checkPrimaryKey(primaryKey);
+            try {
+                this.execute("saveDouble", connection -> {
+                    int written = 0;
+                    for (PreparedStatement pstmt : this.prepareWrite(connection, List.of(column))) {
+                        pstmt.setDouble(this.bindPrimaryKey(pstmt, primaryKey, 1), value);
+                        written += pstmt.executeUpdate();
+                    }
+                    return written;
+                });
             } catch (SQLException e) {
                 throw new RuntimeException("Error inserting value into the table", e);
             }
         }
+
+        /** Saves a decimal column in one batched upsert, binding the values with setDouble
+         */
+        public void saveDoubleColumn(Column<? extends Number> column, ObjectDoubleMap<PK> values) {
+            if (this.isDisconnected() || values.isEmpty()) return;
+            values.forEach((primaryKey, value) -> checkDouble(column, value));
+            if (this.cache != null || this.writeBehind != null) {
+                values.forEach((primaryKey, value) -> this.write(primaryKey, List.of(column), List.of(boxDouble(column, value))));
+                return;
+            }
+            try {
+                this.execute("saveDoubleColumn", connection -> {
+                    int written = 0;
+                    for (PreparedStatement pstmt : this.prepareWrite(connection, List.of(column))) {
+                        values.forEach((primaryKey, value) -> {
+                            try {
+                                pstmt.setDouble(this.bindPrimaryKey(pstmt, primaryKey, 1), value);
+                                pstmt.addBatch();
+                            } catch (SQLException e) {
+                                throw new RuntimeException("Error binding value for key " + primaryKey, e);
+                            }
+                        });
+                        written += sum(pstmt.executeBatch());
+                    }
+                    return written;
+                });
+            } catch (SQLException e) {
+                throw new RuntimeException("Error saving column into the table", e);
+            }
+        }
+
+        /** Rejects columns that are not integer columns, and values that do not fit in the type of the column,
+         * so the row cache and write-behind queue store the same value as a direct write
+         */
+        private static void checkLong(Column<?> column, long value) {
+            Class<?> type = column.getType();
+            if (type != Long.class && type != Integer.class && type != Short.class) {
+                throw new IllegalArgumentException("Column " + column.getName() + " is not an integer column.");
+            }
+            if ((type == Integer.class && value != (int) value) || (type == Short.class && value != (short) value)) {
+                throw new IllegalArgumentException("Value " + value + " is out of range for column " + column.getName() + ".");
+            }
+        }
+
+        private static void checkDouble(Column<?> column, double value) {
+            Class<?> type = column.getType();
+            if (type != Double.class && type != Float.class) {
+                throw new IllegalArgumentException("Column " + column.getName() + " is not a decimal column.");
+            }
+            if (type == Float.class && Double.isFinite(value) && Float.isInfinite((float) value)) {
+                throw new IllegalArgumentException("Value " + value + " is out of range for column " + column.getName() + ".");
+            }
+        }
+
+        private static Object boxLong(Column<?> column, long value) {
+            if (column.getType() == Integer.class) return (int) value;
+            if (column.getType() == Short.class) return (short) value;
+            return value;
+        }
+
+        private static Object boxDouble(Column<?> column, double value) {
+            if (column.getType() == Float.class) return (float) value;
+            return value;
+        }
+
+        /** Writes values without type checks, through the row cache or write-behind queue if there is one
+         */
+        protected void write(PK primaryKey, List<Column<?>> columns, List<Object> values) {
+            this.checkPrimaryKey(primaryKey);
+            if (this.cache != null) {
+                this.cache.write(primaryKey, columns, values);
+                return;
+            }
+            if (this.writeBehind != null) {
+                this.writeBehind.save(this.table, primaryKey, columns, values);
+                return;
+            }
+            try {
+                this.execute("save", connection -> this.upsert(connection, primaryKey, columns, values));
+            } catch (SQLException e) {
+                throw new RuntimeException("Error saving values into the table", e);
+            }
+        }
+
+        protected int upsert(DatabaseConnection connection, PK primaryKey, List<Column<?>> columns, List<Object> values) throws SQLException {
+            int written = 0;
+            for (PreparedStatement pstmt : this.prepareWrite(connection, columns)) {
+                this.bindRow(pstmt, primaryKey, values);
+                written += pstmt.executeUpdate();
+            }
+            return written;
+        }
+
+        /** Statements that write the columns of a row, in order, each binding the primary key and then the values.
+         * A full row is a single upsert. A partial row is an UPDATE followed by an INSERT if the row does not exist yet,
+         * since an upsert fails on an existing row with NOT NULL columns that are left out.
+         */
+        private List<PreparedStatement> prepareWrite(DatabaseConnection connection, List<Column<?>> columns) throws SQLException {
+            List<String> columnNames = this.descriptor.getColumnNames(columns);
+            if (this.descriptor.isFullRow(columns)) {
+                return List.of(this.prepare(connection, "upsert", columnNames, () -> this.descriptor.getUpsertStatement(columnNames)));
+            }
+            PreparedStatement insert = this.prepare(connection, "insertMissing", columnNames, () -> this.descriptor.getInsertMissingStatement(columnNames));
+            if (columns.isEmpty()) return List.of(insert);
+            PreparedStatement update = this.prepare(connection, "update", columnNames, () -> this.descriptor.getUpdateStatement(columnNames));
+            return List.of(update, insert);
+        }
+
+        private static int sum(int[] counts) {
+            int sum = 0;
+            for (int count : counts) {
+                // SUCCESS_NO_INFO for a statement that did run
+                sum += count >= 0 ? count : 1;
+            }
+            return sum;
+        }
+
+        private void bindRow(PreparedStatement pstmt, PK primaryKey, List<Object> values) throws SQLException {
+            int index = this.bindPrimaryKey(pstmt, primaryKey, 1);
+            for (Object value : values) {
+                pstmt.setObject(index++, value);
+            }
+        }
+
+        public <T> CompletableFuture<Void> saveValueAsync(Column<T> column, PK primaryKey, T value) {
+            return this.async(primaryKey, () -> {
+                this.saveValue(column, primaryKey, value);
+                return null;
+            });
+        }
+
+        public <T> void saveValue(Column<T> column, PK primaryKey, T value) {
+            if (this.isDisconnected()) return;
+            this.write(primaryKey, List.of(column), Collections.singletonList(value));
+        }
     }
 
 
@@ -692,13 +1421,115 @@ public class Table<PK> {
         }
 
         public void deleteEntry(PK primaryKey) {
-            String sql = "DELETE FROM " + this.table.name + this.getPrimaryKeyCondition(primaryKey);
-            try (Statement statement = this.connection.createStatement()) {
-                statement.executeUpdate(sql);
+            if (this.isDisconnected()) return;
+            this.checkPrimaryKey(primaryKey);
+            if (this.cache != null) this.cache.invalidate(primaryKey);
+            if (this.writeBehind != null) {
+                this.writeBehind.delete(this.table, primaryKey);
+                return;
+            }
+            try {
+                this.execute("deleteEntry", connection -> this.delete(connection, primaryKey));
             } catch (SQLException e) {
-                throw new RuntimeException("Error inserting value into the table", e);
+                throw new RuntimeException("Error deleting entry from the table", e);
+            }
+        }
+
+        public CompletableFuture<Void> deleteEntryAsync(PK primaryKey) {
+            return this.async(primaryKey, () -> {
+                this.deleteEntry(primaryKey);
+                return null;
+            });
+        }
+
+        /** Deletes multiple entries using chunked IN statements in a single transaction
+         *
+         * @return amount of deleted rows, not counting rows whose writes were still in the row cache
+         */
+        public int deleteEntries(Collection<PK> primaryKeys) {
+            if (this.isDisconnected() || primaryKeys.isEmpty()) return 0;
+            for (PK primaryKey : primaryKeys) {
+                this.checkPrimaryKey(primaryKey);
+                if (this.cache != null) this.cache.invalidate(primaryKey);
+            }
+            // Queued writes to these rows have to land before the delete, not after it
+            if (this.writeBehind != null) this.writeBehind.flush();
+            try {
+                return this.execute("deleteEntries", connection -> {
+                    int deleted = 0;
+                    for (List<PK> chunk : this.chunkPrimaryKeys(primaryKeys)) {
+                        PreparedStatement statement = this.prepare(connection, "delete" + chunk.size(), List.of(), () ->
+                                "DELETE FROM " + this.table.name + this.getPrimaryKeyInCondition(chunk.size()));
+                        this.bindPrimaryKeys(statement, chunk, 1);
+                        deleted += statement.executeUpdate();
+                    }
+                    return deleted;
+                });
+            } catch (SQLException e) {
+                throw new RuntimeException("Error deleting entries from the table", e);
+            }
+        }
+
+        /** Ordered after earlier async calls for any of the keys
+         */
+        public CompletableFuture<Integer> deleteEntriesAsync(Collection<PK> primaryKeys) {
+            return this.async(primaryKeys, () -> this.deleteEntries(primaryKeys));
+        }
+
+        /** Deletes all rows matching the condition in a single statement
+         *
+         * @return amount of deleted rows
+         */
+        public int deleteWhere(Condition condition) {
+            if (this.isDisconnected()) return 0;
+            this.prepareBulkDelete();
+            try {
+                return this.execute("deleteWhere", connection -> {
+                    PreparedStatement statement = this.prepare(connection, "deleteWhere", List.of(condition.getSql()), () ->
+                            "DELETE FROM " + this.table.name + " WHERE " + condition.getSql());
+                    condition.bind(statement, 1);
+                    return statement.executeUpdate();
+                });
+            } catch (SQLException e) {
+                throw new RuntimeException("Error deleting entries from the table", e);
+            }
+        }
+
+        /** Not ordered against async calls of single keys, async saves still running can land after the delete
+         */
+        public CompletableFuture<Integer> deleteWhereAsync(Condition condition) {
+            return this.async(() -> this.deleteWhere(condition));
+        }
+
+        /** Deletes all rows, using the SQLite truncate optimization of a DELETE without WHERE
+         *
+         * @return amount of deleted rows
+         */
+        public int truncate() {
+            if (this.isDisconnected()) return 0;
+            this.prepareBulkDelete();
+            try {
+                return this.execute("truncate", connection -> {
+                    PreparedStatement statement = this.prepare(connection, "truncate", List.of(), () -> "DELETE FROM " + this.table.name);
+                    return statement.executeUpdate();
+                });
+            } catch (SQLException e) {
+                throw new RuntimeException("Error truncating the table", e);
             }
         }
+
+        /** Writes pending rows and empties the cache, since it cannot tell which rows a bulk delete removes
+         */
+        private void prepareBulkDelete() {
+            if (this.cache != null) this.cache.invalidateAll();
+            if (this.writeBehind != null) this.writeBehind.flush();
+        }
+
+        protected int delete(DatabaseConnection connection, PK primaryKey) throws SQLException {
+            PreparedStatement statement = this.prepare(connection, "delete", List.of(), this.descriptor::getDeleteStatement);
+            this.bindPrimaryKey(statement, primaryKey, 1);
+            return statement.executeUpdate();
+        }
     }
 
 
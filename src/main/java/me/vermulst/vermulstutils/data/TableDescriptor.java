@@ -0,0 +1,252 @@
+package me.vermulst.vermulstutils.data;
+
+import java.util.*;
+
+/**
+ * Metadata of a built table, computed once so loaders and savers do not rebuild it on every call.
+ * Holds the column ordinals, the primary key columns and the SQL that does not depend on the selected columns.
+ */
+public final class TableDescriptor {
+
+    private final String name;
+    private final List<Column<?>> columns;
+    // Lower case column name -> ordinal in columns
+    private final Map<String, Integer> ordinals;
+    private final Column<?>[] primaryKeyColumns;
+    private final List<Column<?>> primaryKeyColumnList;
+    private final List<String> primaryKeyNames;
+    private final List<Column<?>> nonPrimaryKeyColumns;
+    private final List<String> nonPrimaryKeyNames;
+
+    private final String primaryKeySelection;
+    private final String primaryKeyCondition;
+    private final String existsStatement;
+    private final String deleteStatement;
+    private final String selectRowStatement;
+    private final String upsertRowStatement;
+
+    protected TableDescriptor(String name, List<Column<?>> columns) {
+        this.name = name;
+        this.columns = List.copyOf(columns);
+        Map<String, Integer> ordinals = new HashMap<>();
+        List<Column<?>> primaryKeyColumns = new ArrayList<>();
+        List<Column<?>> nonPrimaryKeyColumns = new ArrayList<>();
+        for (int i = 0; i < this.columns.size(); i++) {
+            Column<?> column = this.columns.get(i);
+            ordinals.put(column.getName().toLowerCase(Locale.ROOT), i);
+            if (column.isPrimaryKey()) {
+                primaryKeyColumns.add(column);
+            } else {
+                nonPrimaryKeyColumns.add(column);
+            }
+        }
+        this.ordinals = Map.copyOf(ordinals);
+        this.primaryKeyColumns = primaryKeyColumns.toArray(new Column<?>[0]);
+        this.primaryKeyColumnList = List.copyOf(primaryKeyColumns);
+        this.primaryKeyNames = primaryKeyColumns.stream().map(Column::getName).toList();
+        this.nonPrimaryKeyColumns = List.copyOf(nonPrimaryKeyColumns);
+        this.nonPrimaryKeyNames = nonPrimaryKeyColumns.stream().map(Column::getName).toList();
+
+        this.primaryKeySelection = String.join(", ", this.primaryKeyNames);
+        StringBuilder condition = new StringBuilder(" WHERE ");
+        for (int i = 0; i < this.primaryKeyNames.size(); i++) {
+            if (i != 0) condition.append(" AND ");
+            condition.append(this.primaryKeyNames.get(i)).append(" = ?");
+        }
+        this.primaryKeyCondition = condition.toString();
+        this.existsStatement = "SELECT EXISTS(SELECT 1 FROM " + name + this.primaryKeyCondition + " LIMIT 1)";
+        this.deleteStatement = "DELETE FROM " + name + this.primaryKeyCondition;
+        this.selectRowStatement = this.buildSelectStatement(this.nonPrimaryKeyNames);
+        this.upsertRowStatement = this.buildUpsertStatement(this.nonPrimaryKeyNames);
+    }
+
+    private String buildSelectStatement(List<String> columnNames) {
+        return "SELECT " + String.join(", ", columnNames) + " FROM " + this.name + this.primaryKeyCondition;
+    }
+
+    /**
+     * INSERT ... ON CONFLICT(pk) DO UPDATE, so a row is written in one statement
+     * whether it exists or not. Parameters: primary key parts, then the column values.
+     * Only for full rows, SQLite checks NOT NULL on the inserted row before it finds the existing one.
+     */
+    private String buildUpsertStatement(List<String> valueColumnNames) {
+        List<String> columnNames = new ArrayList<>(this.primaryKeyNames);
+        columnNames.addAll(valueColumnNames);
+        StringBuilder sql = new StringBuilder("INSERT INTO ");
+        sql.append(this.name).append(" (");
+        sql.append(String.join(", ", columnNames));
+        sql.append(") VALUES (");
+        sql.append("?, ".repeat(Math.max(0, columnNames.size() - 1)));
+        sql.append("?) ON CONFLICT (");
+        sql.append(this.primaryKeySelection);
+        sql.append(")");
+        if (valueColumnNames.isEmpty()) {
+            sql.append(" DO NOTHING");
+            return sql.toString();
+        }
+        sql.append(" DO UPDATE SET ");
+        for (int i = 0; i < valueColumnNames.size(); i++) {
+            if (i != 0) sql.append(", ");
+            String columnName = valueColumnNames.get(i);
+            sql.append(columnName).append(" = excluded.").append(columnName);
+        }
+        return sql.toString();
+    }
+
+    /**
+     * UPDATE of the given columns for the row with the bound primary key.
+     * Uses numbered parameters, so it binds the primary key parts and then the values like the upsert.
+     */
+    private String buildUpdateStatement(List<String> valueColumnNames) {
+        StringBuilder sql = new StringBuilder("UPDATE ");
+        sql.append(this.name).append(" SET ");
+        int index = this.primaryKeyNames.size() + 1;
+        for (int i = 0; i < valueColumnNames.size(); i++) {
+            if (i != 0) sql.append(", ");
+            sql.append(valueColumnNames.get(i)).append(" = ?").append(index++);
+        }
+        return sql.append(this.getNumberedPrimaryKeyCondition()).toString();
+    }
+
+    /**
+     * INSERT of the given columns that only runs if there is no row with the bound primary key yet,
+     * so the omitted columns of an existing row are never checked. Parameters like the upsert.
+     */
+    private String buildInsertMissingStatement(List<String> valueColumnNames) {
+        List<String> columnNames = new ArrayList<>(this.primaryKeyNames);
+        columnNames.addAll(valueColumnNames);
+        StringBuilder sql = new StringBuilder("INSERT INTO ");
+        sql.append(this.name).append(" (");
+        sql.append(String.join(", ", columnNames));
+        sql.append(") SELECT ");
+        for (int i = 1; i <= columnNames.size(); i++) {
+            if (i != 1) sql.append(", ");
+            sql.append('?').append(i);
+        }
+        sql.append(" WHERE NOT EXISTS (SELECT 1 FROM ").append(this.name);
+        return sql.append(this.getNumberedPrimaryKeyCondition()).append(")").toString();
+    }
+
+    private String getNumberedPrimaryKeyCondition() {
+        StringBuilder condition = new StringBuilder(" WHERE ");
+        for (int i = 0; i < this.primaryKeyNames.size(); i++) {
+            if (i != 0) condition.append(" AND ");
+            condition.append(this.primaryKeyNames.get(i)).append(" = ?").append(i + 1);
+        }
+        return condition.toString();
+    }
+
+    /**
+     * @return true if the columns are all non primary key columns of this table
+     */
+    public boolean isFullRow(List<Column<?>> columns) {
+        if (columns == this.nonPrimaryKeyColumns) return true;
+        return columns.size() == this.nonPrimaryKeyColumns.size() && columns.containsAll(this.nonPrimaryKeyColumns);
+    }
+
+    /**
+     * @return names of the columns, without copying when they are the non primary key columns of this table
+     */
+    public List<String> getColumnNames(List<Column<?>> columns) {
+        if (columns == this.nonPrimaryKeyColumns) return this.nonPrimaryKeyNames;
+        List<String> columnNames = new ArrayList<>(columns.size());
+        for (Column<?> column : columns) {
+            columnNames.add(column.getName());
+        }
+        return columnNames;
+    }
+
+    /**
+     * @return SELECT of the given columns for the row with the bound primary key
+     */
+    public String getSelectStatement(List<String> columnNames) {
+        return columnNames == this.nonPrimaryKeyNames ? this.selectRowStatement : this.buildSelectStatement(columnNames);
+    }
+
+    /**
+     * @return upsert of the given columns for the row with the bound primary key
+     */
+    public String getUpsertStatement(List<String> columnNames) {
+        return columnNames == this.nonPrimaryKeyNames ? this.upsertRowStatement : this.buildUpsertStatement(columnNames);
+    }
+
+    /**
+     * @return UPDATE of the given columns for the row with the bound primary key
+     */
+    public String getUpdateStatement(List<String> columnNames) {
+        return this.buildUpdateStatement(columnNames);
+    }
+
+    /**
+     * @return INSERT of the given columns if there is no row with the bound primary key
+     */
+    public String getInsertMissingStatement(List<String> columnNames) {
+        return this.buildInsertMissingStatement(columnNames);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public List<Column<?>> getColumns() {
+        return columns;
+    }
+
+    /**
+     * @return position of the column in the table, -1 if the table has no column with that name
+     */
+    public int getOrdinal(String columnName) {
+        Integer ordinal = this.ordinals.get(columnName.toLowerCase(Locale.ROOT));
+        return ordinal != null ? ordinal : -1;
+    }
+
+    /**
+     * @return the column with the given name, ignoring case, or null
+     */
+    public Column<?> getColumn(String columnName) {
+        int ordinal = this.getOrdinal(columnName);
+        return ordinal != -1 ? this.columns.get(ordinal) : null;
+    }
+
+    public int getPrimaryKeySize() {
+        return primaryKeyColumns.length;
+    }
+
+    public Column<?> getPrimaryKeyColumn(int index) {
+        return primaryKeyColumns[index];
+    }
+
+    public List<Column<?>> getPrimaryKeyColumns() {
+        return primaryKeyColumnList;
+    }
+
+    public List<String> getPrimaryKeyNames() {
+        return primaryKeyNames;
+    }
+
+    public List<Column<?>> getNonPrimaryKeyColumns() {
+        return nonPrimaryKeyColumns;
+    }
+
+    /**
+     * @return the primary key column names separated by commas
+     */
+    public String getPrimaryKeySelection() {
+        return primaryKeySelection;
+    }
+
+    /**
+     * @return " WHERE a = ? AND b = ?" over the primary key columns
+     */
+    public String getPrimaryKeyCondition() {
+        return primaryKeyCondition;
+    }
+
+    public String getExistsStatement() {
+        return existsStatement;
+    }
+
+    public String getDeleteStatement() {
+        return deleteStatement;
+    }
+}
@@ -1,75 +1,313 @@
 package me.vermulst.vermulstutils.data;
 
-import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
 
 public class TableIO<PK> implements AutoCloseable {
 
+    // SQLITE_MAX_VARIABLE_NUMBER for SQLite 3.32.0 and later
+    protected static final int MAX_VARIABLE_NUMBER = 32766;
+    // Sizes the last chunk of keys is padded to, so a few statements are cached per operation instead of one per amount of keys
+    private static final int[] CHUNK_SIZES = {1, 8, 64, 512, 4096};
+
     protected final Table<PK> table;
-    protected Connection connection;
+    protected final TableDescriptor descriptor;
+    protected Database database;
+    // Set when writes of this TableIO go through the write-behind queue of the database
+    protected WriteBehindQueue writeBehind;
+    // Set when the table has a row cache and this TableIO reads and writes through it
+    protected RowCache<PK> cache;
     protected TableIO(Table table) {
         this.table = table;
+        this.descriptor = table.getDescriptor();
+    }
+
+    protected String getPrimaryKeyCondition() {
+        return this.descriptor.getPrimaryKeyCondition();
+    }
+
+    /** Binds the primary key parts to the placeholders of {@link #getPrimaryKeyCondition()}
+     *
+     * @param index - index of the first primary key placeholder
+     * @return index of the next placeholder
+     */
+    protected int bindPrimaryKey(PreparedStatement statement, PK primaryKey, int index) throws SQLException {
+        this.checkPrimaryKey(primaryKey);
+        for (Object primaryKeyValue : this.table.getPrimaryKeyObjects(primaryKey)) {
+            statement.setObject(index++, primaryKeyValue);
+        }
+        return index;
+    }
+
+    protected void checkPrimaryKey(PK primaryKey) {
+        if (this.descriptor.getPrimaryKeySize() != this.table.getPrimaryKeySize(primaryKey)) {
+            throw new IllegalArgumentException("Primary key values do not match the number of primary key columns.");
+        }
     }
 
-    protected String getPrimaryKeyCondition(PK primaryKey) {
-        List<String> primaryKeyNames = this.table.getPrimaryKeyNames().stream().toList();
+    /**
+     * @param count - amount of primary keys in the condition
+     * @return WHERE pk IN (?, ...), or (a, b) IN (VALUES (?, ?), ...) for composite keys
+     */
+    protected String getPrimaryKeyInCondition(int count) {
+        List<String> primaryKeyNames = this.descriptor.getPrimaryKeyNames();
         StringBuilder condition = new StringBuilder(" WHERE ");
-        List<Object> objects = new ArrayList<>();
-        if (primaryKey instanceof CompositeKey compositeKey) {
-            objects.addAll(compositeKey.getKeyParts());
-        } else {
-            objects.add(primaryKey);
-        }
-        for (int i = 0; i < primaryKeyNames.size(); i++) {
-            if (i != 0) {
-                condition.append(" AND ");
-            }
-            condition.append(primaryKeyNames.get(i)).append(" = '").append(objects.get(i)).append("'");
+        if (primaryKeyNames.size() == 1) {
+            condition.append(primaryKeyNames.get(0)).append(" IN (");
+            condition.append("?, ".repeat(count - 1)).append("?)");
+            return condition.toString();
+        }
+        String tuple = "(" + "?, ".repeat(primaryKeyNames.size() - 1) + "?)";
+        condition.append("(").append(this.descriptor.getPrimaryKeySelection()).append(") IN (VALUES ");
+        for (int i = 0; i < count; i++) {
+            if (i != 0) condition.append(", ");
+            condition.append(tuple);
         }
+        condition.append(")");
         return condition.toString();
     }
 
+    protected int bindPrimaryKeys(PreparedStatement statement, List<PK> primaryKeys, int index) throws SQLException {
+        for (PK primaryKey : primaryKeys) {
+            index = this.bindPrimaryKey(statement, primaryKey, index);
+        }
+        return index;
+    }
+
+    /** Splits keys into chunks that fit in a single statement's parameter limit.
+     * The last chunk is padded with its last key up to the next of a few fixed sizes, which IN conditions ignore.
+     */
+    protected List<List<PK>> chunkPrimaryKeys(Collection<PK> primaryKeys) {
+        int chunkSize = MAX_VARIABLE_NUMBER / Math.max(1, this.descriptor.getPrimaryKeySize());
+        List<List<PK>> chunks = new ArrayList<>();
+        List<PK> chunk = new ArrayList<>(Math.min(chunkSize, primaryKeys.size()));
+        for (PK primaryKey : primaryKeys) {
+            chunk.add(primaryKey);
+            if (chunk.size() == chunkSize) {
+                chunks.add(chunk);
+                chunk = new ArrayList<>(Math.min(chunkSize, primaryKeys.size()));
+            }
+        }
+        if (!chunk.isEmpty()) {
+            int paddedSize = chunkSize;
+            for (int size : CHUNK_SIZES) {
+                if (size >= chunk.size() && size < chunkSize) {
+                    paddedSize = size;
+                    break;
+                }
+            }
+            PK last = chunk.get(chunk.size() - 1);
+            while (chunk.size() < paddedSize) chunk.add(last);
+            chunks.add(chunk);
+        }
+        return chunks;
+    }
+
+    /** Reads the primary key columns starting at the given index
+     *
+     * @return the key, or a CompositeKey if the table has multiple primary key columns
+     */
+    @SuppressWarnings("unchecked")
+    protected PK readPrimaryKey(ResultSet resultSet, int index) throws SQLException {
+        int primaryKeySize = this.descriptor.getPrimaryKeySize();
+        if (primaryKeySize == 1) {
+            return (PK) resultSet.getObject(index, this.descriptor.getPrimaryKeyColumn(0).getType());
+        }
+        List<Object> keyParts = new ArrayList<>(primaryKeySize);
+        for (int i = 0; i < primaryKeySize; i++) {
+            keyParts.add(resultSet.getObject(index++, this.descriptor.getPrimaryKeyColumn(i).getType()));
+        }
+        return (PK) new CompositeKey(keyParts);
+    }
+
+    protected <T> T readValue(ResultSet resultSet, int index, Column<T> column) throws SQLException {
+        try {
+            return resultSet.getObject(index, column.getType()); // Use conversion
+        } catch (SQLException e) {
+            if (resultSet.wasNull()) { // Check explicitly for NULL handling
+                return null;
+            }
+            throw e; // Rethrow other SQLExceptions
+        }
+    }
+
+    protected PreparedStatement prepare(DatabaseConnection connection, String operation, List<String> columns, Supplier<String> sql) throws SQLException {
+        return connection.prepare(this.table.name, operation, columns, sql);
+    }
+
+    /** Runs the action on a connection of the database, savers and deleters use the writer.
+     * Rows touched are recorded from the result: an update count, batch counts, a found flag or the loaded rows.
+     *
+     * @param operation - name the action is recorded under in the {@link Metrics} of the database
+     */
+    protected <R> R execute(String operation, DatabaseConnection.SQLAction<R> action) throws SQLException {
+        return this.execute(operation, TableIO::countRows, action);
+    }
+
+    /**
+     * @param rows - rows the result of the action touched
+     */
+    protected <R> R execute(String operation, ToLongFunction<R> rows, DatabaseConnection.SQLAction<R> action) throws SQLException {
+        SlowStatementLog slowStatementLog = this.database.getSlowStatementLog();
+        if (slowStatementLog != null) action = slowStatementLog.track(this.table.name, operation, action);
+        Metrics metrics = this.database.getMetrics();
+        if (!metrics.isEnabled()) return this.run(action);
+        long start = System.nanoTime();
+        R result;
+        try {
+            result = this.run(action);
+        } catch (SQLException | RuntimeException e) {
+            metrics.record(this.table.name, operation, System.nanoTime() - start, 0, true);
+            throw e;
+        }
+        metrics.record(this.table.name, operation, System.nanoTime() - start, rows.applyAsLong(result), false);
+        return result;
+    }
+
+    private <R> R run(DatabaseConnection.SQLAction<R> action) throws SQLException {
+        DatabaseConnection connection = this.acquire();
+        try {
+            return connection.execute(action);
+        } finally {
+            this.release(connection);
+        }
+    }
+
+    private static long countRows(Object result) {
+        if (result == null) return 0;
+        if (result instanceof Integer count) return count;
+        if (result instanceof Boolean found) return found ? 1 : 0;
+        if (result instanceof int[] counts) {
+            long rows = 0;
+            for (int count : counts) {
+                // SUCCESS_NO_INFO for a statement that did run
+                rows += count >= 0 ? count : 1;
+            }
+            return rows;
+        }
+        if (result instanceof Collection<?> collection) return collection.size();
+        if (result instanceof Map<?, ?> map) return map.size();
+        return 1;
+    }
+
+    /** Runs the task on the async executor of the database, after earlier async tasks for the same key
+     */
+    protected <R> CompletableFuture<R> async(PK primaryKey, Supplier<R> task) {
+        if (this.isDisconnected()) return CompletableFuture.completedFuture(null);
+        return this.database.getAsyncExecutor().submit(new AsyncKey(this.table.name, primaryKey), task);
+    }
+
+    /** Runs the task on the async executor of the database, after earlier async tasks for any of the keys and before later ones
+     */
+    protected <R> CompletableFuture<R> async(Collection<PK> primaryKeys, Supplier<R> task) {
+        if (this.isDisconnected()) return CompletableFuture.completedFuture(null);
+        List<AsyncKey> keys = new ArrayList<>(primaryKeys.size());
+        for (PK primaryKey : primaryKeys) {
+            keys.add(new AsyncKey(this.table.name, primaryKey));
+        }
+        return this.database.getAsyncExecutor().submit(keys, task);
+    }
+
+    protected <R> CompletableFuture<R> async(Supplier<R> task) {
+        if (this.isDisconnected()) return CompletableFuture.completedFuture(null);
+        return this.database.getAsyncExecutor().submit(task);
+    }
+
+    protected DatabaseConnection acquire() {
+        return this.database.getWriter();
+    }
+
+    protected void release(DatabaseConnection connection) {
+    }
+
     protected boolean entryExists(PK primaryKey) {
         if (this.isDisconnected()) return false;
-        List<String> primaryKeyNames = this.table.getPrimaryKeyNames().stream().toList();
-        if (primaryKeyNames.size() != this.table.getPrimaryKeySize(primaryKey)) {
-            throw new IllegalArgumentException("Primary key values do not match the number of primary key columns.");
-        }
-        StringBuilder query = new StringBuilder("SELECT EXISTS(SELECT 1 FROM ");
-        query.append(this.table.name).append(this.getPrimaryKeyCondition(primaryKey));
-        query.append(" LIMIT 1)");
-        try (Statement statement = connection.createStatement()){
-            ResultSet resultSet = statement.executeQuery(query.toString());
-            return resultSet.getBoolean(1);
+        this.flushCache();
+        try {
+            return this.execute("exists", connection -> {
+                PreparedStatement statement = this.prepare(connection, "exists", List.of(), this.descriptor::getExistsStatement);
+                this.bindPrimaryKey(statement, primaryKey, 1);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    return resultSet.next() && resultSet.getBoolean(1);
+                }
+            });
         } catch (SQLException e) {
             throw new RuntimeException("Error checking if entry exists", e);
         }
     }
 
+    /** Checks which of the given entries exist, using chunked IN queries
+     *
+     * @param primaryKeys - keys to check
+     * @return the subset of keys that exist in the table
+     */
+    public Set<PK> exists(Collection<PK> primaryKeys) {
+        Set<PK> existing = new HashSet<>();
+        if (this.isDisconnected() || primaryKeys.isEmpty()) return existing;
+        this.flushCache();
+        String primaryKeyNames = this.descriptor.getPrimaryKeySelection();
+        try {
+            this.execute("existsAll", connection -> {
+                for (List<PK> chunk : this.chunkPrimaryKeys(primaryKeys)) {
+                    PreparedStatement statement = this.prepare(connection, "exists" + chunk.size(), List.of(), () ->
+                            "SELECT " + primaryKeyNames + " FROM " + this.table.name + this.getPrimaryKeyInCondition(chunk.size()));
+                    this.bindPrimaryKeys(statement, chunk, 1);
+                    try (ResultSet resultSet = statement.executeQuery()) {
+                        while (resultSet.next()) {
+                            existing.add(this.readPrimaryKey(resultSet, 1));
+                        }
+                    }
+                }
+                return existing;
+            });
+        } catch (SQLException e) {
+            throw new RuntimeException("Error checking if entries exist", e);
+        }
+        return existing;
+    }
+
     protected void connect(Database database) {
-        this.connection = database.getConnection();
+        this.database = database;
+        this.writeBehind = database.getWriteBehindQueue();
+        this.cache = this.table.getCache();
     }
 
+    /** Writes the dirty rows of the cache, so queries that bypass it see them
+     */
+    protected void flushCache() {
+        if (this.cache != null) this.cache.flush();
+    }
+
+    /** Writes the write-behind queue if it holds writes to any of the keys, so async loads see the async saves before them
+     */
+    protected void flushQueued(Collection<PK> primaryKeys) {
+        if (this.writeBehind != null && this.writeBehind.isQueued(this.table, primaryKeys)) this.writeBehind.flush();
+    }
+
+    /** Every operation commits on its own, so this only detaches from the database
+     */
     public void disconnect(Database database) {
-        try {
-            this.connection.commit();
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        }
-        database.closeConnection();
+        this.database = null;
+        this.writeBehind = null;
+        this.cache = null;
     }
 
     protected boolean isDisconnected() {
-        return this.connection == null;
+        return this.database == null;
+    }
+
+    private record AsyncKey(String table, Object primaryKey) {
     }
 
     @Override
-    public void close() throws Exception {
-        if (this.connection == null || this.connection.isClosed()) return;
-        this.connection.close();
+    public void close() {
+        this.database = null;
+        this.writeBehind = null;
+        this.cache = null;
     }
 }
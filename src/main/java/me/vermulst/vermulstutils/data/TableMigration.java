@@ -0,0 +1,318 @@
+package me.vermulst.vermulstutils.data;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Rebuilds a table into a new one with the declared schema, for changes ALTER TABLE cannot make.
+ * Rows are copied in rowid ranges, one short transaction per chunk, so other writes can go in between.
+ * Triggers on the old table apply those writes to the new table, and a checkpoint lets the copy resume after a restart.
+ * The old table is replaced by the new one in a single transaction at the end.
+ * A row that breaks a constraint of the new table fails the migration, which then removes the new table, triggers and checkpoint.
+ */
+public class TableMigration {
+
+    private static final System.Logger LOGGER = System.getLogger(TableMigration.class.getName());
+
+    public static final int DEFAULT_CHUNK_SIZE = 10_000;
+
+    protected static final String CHECKPOINT_TABLE = "vsqlite_migration";
+    private static final String SHADOW_PREFIX = "vsqlite_new_";
+
+    private final Table<?> table;
+    private final DatabaseConnection writer;
+    private final int chunkSize;
+    private final ProgressListener listener;
+    private final String shadowTable;
+    private List<String> columnNames;
+
+    protected TableMigration(Table<?> table, DatabaseConnection writer, int chunkSize, ProgressListener listener) {
+        this.table = table;
+        this.writer = writer;
+        this.chunkSize = chunkSize;
+        this.listener = listener;
+        this.shadowTable = SHADOW_PREFIX + table.getName();
+    }
+
+    /**
+     * @return true if a migration of the table was started and has not finished
+     */
+    protected static boolean isPending(Connection connection, String tableName) throws SQLException {
+        if (!tableExists(connection, CHECKPOINT_TABLE)) return false;
+        try (PreparedStatement pstmt = connection.prepareStatement("SELECT 1 FROM " + CHECKPOINT_TABLE + " WHERE name = ?")) {
+            pstmt.setString(1, tableName);
+            try (ResultSet resultSet = pstmt.executeQuery()) {
+                return resultSet.next();
+            }
+        }
+    }
+
+    /** Copies the table chunk by chunk and swaps it with the new table, resuming an earlier run if there is one
+     */
+    protected void run() throws SQLException {
+        try {
+            Checkpoint checkpoint = this.writer.execute(connection -> this.start(connection.getConnection()));
+            this.listener.progress(this.table.getName(), checkpoint.copiedRows, checkpoint.totalRows);
+            while (checkpoint.lastRowid < checkpoint.maxRowid) {
+                Checkpoint previous = checkpoint;
+                checkpoint = this.writer.execute(connection -> this.copyChunk(connection.getConnection(), previous));
+                this.listener.progress(this.table.getName(), checkpoint.copiedRows, checkpoint.totalRows);
+            }
+            this.writer.execute(connection -> {
+                this.swap(connection.getConnection());
+                return null;
+            });
+        } catch (SQLException | RuntimeException e) {
+            this.abort(e);
+            throw e;
+        }
+    }
+
+    /** Removes the triggers, the new table and the checkpoint, so the old table is used and written as before the migration
+     */
+    private void abort(Exception cause) {
+        try {
+            this.writer.execute(connection -> {
+                try (Statement statement = connection.getConnection().createStatement()) {
+                    this.dropTriggers(statement);
+                    statement.execute("DROP TABLE IF EXISTS " + this.shadowTable);
+                }
+                if (tableExists(connection.getConnection(), CHECKPOINT_TABLE)) {
+                    try (PreparedStatement pstmt = connection.getConnection().prepareStatement("DELETE FROM " + CHECKPOINT_TABLE + " WHERE name = ?")) {
+                        pstmt.setString(1, this.table.getName());
+                        pstmt.executeUpdate();
+                    }
+                }
+                return null;
+            });
+        } catch (SQLException | RuntimeException e) {
+            cause.addSuppressed(e);
+        }
+    }
+
+    private Checkpoint start(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE IF NOT EXISTS " + CHECKPOINT_TABLE + " (name TEXT PRIMARY KEY, definition TEXT NOT NULL, " +
+                    "last_rowid INTEGER NOT NULL, max_rowid INTEGER NOT NULL, copied INTEGER NOT NULL, total INTEGER NOT NULL)");
+        }
+        String definition = this.table.getSchemaDefinition();
+        Checkpoint checkpoint = this.readCheckpoint(connection);
+        if (checkpoint != null && checkpoint.definition.equals(definition) && tableExists(connection, this.shadowTable)) {
+            this.columnNames = this.getCopyingColumns(connection);
+            LOGGER.log(System.Logger.Level.INFO, "Resuming migration of table " + this.table.getName() + " at rowid " + checkpoint.lastRowid);
+            return checkpoint;
+        }
+        try (Statement statement = connection.createStatement()) {
+            // A run for a different schema, the copy has to start over
+            this.dropTriggers(statement);
+            statement.execute("DROP TABLE IF EXISTS " + this.shadowTable);
+            this.columnNames = this.getCopyingColumns(connection);
+            this.checkConstraints(connection);
+            statement.execute(this.table.getCreateStatement(this.shadowTable));
+            this.createTriggers(statement);
+            long maxRowid;
+            long totalRows;
+            try (ResultSet resultSet = statement.executeQuery("SELECT coalesce(max(rowid), 0), count(*) FROM " + this.table.getName())) {
+                resultSet.next();
+                maxRowid = resultSet.getLong(1);
+                totalRows = resultSet.getLong(2);
+            }
+            checkpoint = new Checkpoint(definition, 0, maxRowid, 0, totalRows);
+        }
+        this.writeCheckpoint(connection, checkpoint);
+        return checkpoint;
+    }
+
+    private Checkpoint copyChunk(Connection connection, Checkpoint checkpoint) throws SQLException {
+        long upperRowid = Math.min(checkpoint.lastRowid + this.chunkSize, checkpoint.maxRowid);
+        String columns = String.join(", ", this.columnNames);
+        // Rows the triggers already wrote are newer than the ones in the old table, so they are skipped.
+        // Any other conflict is a row that breaks a constraint of the new table, which fails the copy.
+        String copy = "INSERT INTO " + this.shadowTable + " (rowid, " + columns + ") SELECT rowid, " + columns +
+                " FROM " + this.table.getName() + " old WHERE rowid > ? AND rowid <= ? " +
+                "AND NOT EXISTS (SELECT 1 FROM " + this.shadowTable + " WHERE rowid = old.rowid)";
+        int copied;
+        try (PreparedStatement pstmt = connection.prepareStatement(copy)) {
+            pstmt.setLong(1, checkpoint.lastRowid);
+            pstmt.setLong(2, upperRowid);
+            copied = pstmt.executeUpdate();
+        }
+        Checkpoint next = new Checkpoint(checkpoint.definition, upperRowid, checkpoint.maxRowid,
+                checkpoint.copiedRows + copied, checkpoint.totalRows);
+        this.writeCheckpoint(connection, next);
+        return next;
+    }
+
+    private void swap(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            this.dropTriggers(statement);
+            statement.execute("DROP TABLE " + this.table.getName());
+            statement.execute("ALTER TABLE " + this.shadowTable + " RENAME TO " + this.table.getName());
+        }
+        try (PreparedStatement pstmt = connection.prepareStatement("DELETE FROM " + CHECKPOINT_TABLE + " WHERE name = ?")) {
+            pstmt.setString(1, this.table.getName());
+            pstmt.executeUpdate();
+        }
+    }
+
+    /** Keeps the new table up to date with writes to rows of the old table, copied or not, by rowid.
+     * The new table only has rowids the old table has as well, so the inserts cannot conflict on the rowid.
+     * A write that breaks a constraint of the new table fails instead of replacing other rows.
+     */
+    private void createTriggers(Statement statement) throws SQLException {
+        String columns = String.join(", ", this.columnNames);
+        String newValues = this.columnNames.stream().map(name -> "NEW." + name).collect(Collectors.joining(", "));
+        String insert = "INSERT INTO " + this.shadowTable + " (rowid, " + columns + ") VALUES (NEW.rowid, " + newValues + ");";
+        String delete = "DELETE FROM " + this.shadowTable + " WHERE rowid = OLD.rowid;";
+        String tableName = this.table.getName();
+        statement.execute("CREATE TRIGGER " + this.getTriggerName("insert") + " AFTER INSERT ON " + tableName + " BEGIN " + insert + " END");
+        statement.execute("CREATE TRIGGER " + this.getTriggerName("update") + " AFTER UPDATE ON " + tableName + " BEGIN " + delete + " " + insert + " END");
+        statement.execute("CREATE TRIGGER " + this.getTriggerName("delete") + " AFTER DELETE ON " + tableName + " BEGIN " + delete + " END");
+    }
+
+    private void dropTriggers(Statement statement) throws SQLException {
+        for (String operation : List.of("insert", "update", "delete")) {
+            statement.execute("DROP TRIGGER IF EXISTS " + this.getTriggerName(operation));
+        }
+    }
+
+    private String getTriggerName(String operation) {
+        return "vsqlite_migrate_" + this.table.getName() + "_" + operation;
+    }
+
+    /** Checks the NOT NULL, UNIQUE and primary key constraints of the new table against the rows of the old table,
+     * before anything is created. Columns the old table does not have get their default value.
+     *
+     * @throws SQLException naming the constraint if a row breaks it
+     */
+    private void checkConstraints(Connection connection) throws SQLException {
+        String tableName = this.table.getName();
+        Map<String, String> values = new LinkedHashMap<>();
+        for (Column<?> column : this.table.getColumns()) {
+            String defaultValue = column.getDefaultValueDefinition();
+            values.put(column.getName(), this.columnNames.contains(column.getName()) ? column.getName() : defaultValue != null ? defaultValue : "NULL");
+        }
+        for (Column<?> column : this.table.getColumns()) {
+            String value = values.get(column.getName());
+            if (column.getColumnProperties().contains(Column.ColumnProperty.NOT_NULL)) {
+                this.checkNoRows(connection, "SELECT 1 FROM " + tableName + " WHERE " + value + " IS NULL LIMIT 1",
+                        "NOT NULL constraint on " + column.getName());
+            }
+            if (column.getColumnProperties().contains(Column.ColumnProperty.UNIQUE)) {
+                this.checkNoRows(connection, this.getDuplicatesQuery(List.of(column.getName()), values),
+                        "UNIQUE constraint on " + column.getName());
+            }
+        }
+        List<String> primaryKey = this.table.getPrimaryKeyNames();
+        if (!primaryKey.isEmpty()) {
+            this.checkNoRows(connection, this.getDuplicatesQuery(primaryKey, values),
+                    "PRIMARY KEY constraint on " + String.join(", ", primaryKey));
+        }
+    }
+
+    /** Rows with NULL in one of the columns never conflict, added columns have the same value in every row
+     *
+     * @return query returning a row if two rows of the old table have the same values for the columns
+     */
+    private String getDuplicatesQuery(List<String> columnNames, Map<String, String> values) {
+        String notNull = columnNames.stream().map(name -> values.get(name) + " IS NOT NULL").collect(Collectors.joining(" AND "));
+        List<String> copied = columnNames.stream().filter(this.columnNames::contains).toList();
+        String query = "SELECT 1 FROM " + this.table.getName() + " WHERE " + notNull;
+        if (copied.isEmpty()) return query + " LIMIT 1 OFFSET 1";
+        return query + " GROUP BY " + String.join(", ", copied) + " HAVING count(*) > 1 LIMIT 1";
+    }
+
+    private void checkNoRows(Connection connection, String query, String constraint) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(query)) {
+            if (resultSet.next()) {
+                throw new SQLException("Rows of table " + this.table.getName() + " break the " + constraint + " of its new schema");
+            }
+        }
+    }
+
+    /**
+     * @return the declared columns that the old table has as well
+     */
+    private List<String> getCopyingColumns(Connection connection) throws SQLException {
+        Set<String> oldColumnNames = new HashSet<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("PRAGMA table_info(" + this.table.getName() + ")")) {
+            while (resultSet.next()) {
+                oldColumnNames.add(resultSet.getString("name").toLowerCase(Locale.ROOT));
+            }
+        }
+        return this.table.getColumns().stream()
+                .map(Column::getName)
+                .filter(name -> oldColumnNames.contains(name.toLowerCase(Locale.ROOT)))
+                .collect(Collectors.toList());
+    }
+
+    private Checkpoint readCheckpoint(Connection connection) throws SQLException {
+        try (PreparedStatement pstmt = connection.prepareStatement(
+                "SELECT definition, last_rowid, max_rowid, copied, total FROM " + CHECKPOINT_TABLE + " WHERE name = ?")) {
+            pstmt.setString(1, this.table.getName());
+            try (ResultSet resultSet = pstmt.executeQuery()) {
+                if (!resultSet.next()) return null;
+                return new Checkpoint(resultSet.getString(1), resultSet.getLong(2), resultSet.getLong(3),
+                        resultSet.getLong(4), resultSet.getLong(5));
+            }
+        }
+    }
+
+    private void writeCheckpoint(Connection connection, Checkpoint checkpoint) throws SQLException {
+        try (PreparedStatement pstmt = connection.prepareStatement("INSERT INTO " + CHECKPOINT_TABLE +
+                " (name, definition, last_rowid, max_rowid, copied, total) VALUES (?, ?, ?, ?, ?, ?) " +
+                "ON CONFLICT(name) DO UPDATE SET definition = excluded.definition, last_rowid = excluded.last_rowid, " +
+                "max_rowid = excluded.max_rowid, copied = excluded.copied, total = excluded.total")) {
+            pstmt.setString(1, this.table.getName());
+            pstmt.setString(2, checkpoint.definition);
+            pstmt.setLong(3, checkpoint.lastRowid);
+            pstmt.setLong(4, checkpoint.maxRowid);
+            pstmt.setLong(5, checkpoint.copiedRows);
+            pstmt.setLong(6, checkpoint.totalRows);
+            pstmt.executeUpdate();
+        }
+    }
+
+    private static boolean tableExists(Connection connection, String tableName) throws SQLException {
+        try (PreparedStatement pstmt = connection.prepareStatement("SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = ?")) {
+            pstmt.setString(1, tableName);
+            try (ResultSet resultSet = pstmt.executeQuery()) {
+                return resultSet.next();
+            }
+        }
+    }
+
+    /**
+     * @return a listener that logs progress about every tenth of the table
+     */
+    public static ProgressListener log() {
+        return new ProgressListener() {
+            private long lastReported;
+
+            @Override
+            public void progress(String table, long copiedRows, long totalRows) {
+                if (copiedRows != 0 && copiedRows < totalRows && copiedRows - this.lastReported < Math.max(1, totalRows / 10)) return;
+                this.lastReported = copiedRows;
+                LOGGER.log(System.Logger.Level.INFO, "Migrating table " + table + ": " + copiedRows + "/" + totalRows + " rows");
+            }
+        };
+    }
+
+    public interface ProgressListener {
+        /**
+         * @param copiedRows - rows copied by the chunks so far, writes during the migration are not counted
+         * @param totalRows - rows in the table when the migration started
+         */
+        void progress(String table, long copiedRows, long totalRows);
+    }
+
+    private record Checkpoint(String definition, long lastRowid, long maxRowid, long copiedRows, long totalRows) {
+    }
+}
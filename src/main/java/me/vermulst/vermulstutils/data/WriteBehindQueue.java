@@ -0,0 +1,348 @@
+package me.vermulst.vermulstutils.data;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Queues the writes of savers and deleters and applies them on a single background thread.
+ * Writes to the same row are coalesced, and every flush is written in one transaction.
+ * Queued writes are not visible to loaders until they are flushed, async loads flush the queue first if it holds writes to their keys.
+ * If a flush fails, its rows are written one by one: a row that fails on its own is dropped and reported to the {@link Listener},
+ * on a failure of the database itself, e.g. SQLITE_BUSY, the rows stay queued for the next flush.
+ */
+public class WriteBehindQueue {
+
+    private static final System.Logger LOGGER = System.getLogger(WriteBehindQueue.class.getName());
+
+    // Result codes of failures that are not caused by the written row: BUSY, LOCKED, NOMEM, READONLY, IOERR, FULL and CANTOPEN
+    private static final Set<Integer> DATABASE_ERRORS = Set.of(5, 6, 7, 8, 10, 13, 14);
+
+    private final Database database;
+    private final Listener listener;
+    private final int capacity;
+    private final int flushSize;
+    private final long flushIntervalNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private final Condition work = lock.newCondition();
+    private final Condition flushed = lock.newCondition();
+
+    private Map<PendingKey, PendingRow> pending = new LinkedHashMap<>();
+    // Rows of the flush that is being written
+    private Map<PendingKey, PendingRow> writing = Map.of();
+    private int mutations;
+    private long flushRequests;
+    private long completedFlushRequests;
+    private RuntimeException failure;
+    private boolean running = true;
+    private final Thread thread;
+
+    /**
+     * @param capacity - maximum amount of rows with queued writes, further rows block until a flush.
+     *                 A thread holding the writer goes over it instead, since the flush needs the writer.
+     * @param flushInterval - maximum time between flushes
+     * @param flushSize - amount of writes that triggers a flush before the interval has passed
+     * @param listener - receives the rows that are dropped, null to log them
+     */
+    protected WriteBehindQueue(Database database, int capacity, Duration flushInterval, int flushSize, Listener listener) {
+        this.database = database;
+        this.listener = listener != null ? listener : WriteBehindQueue::log;
+        this.capacity = capacity;
+        this.flushSize = flushSize;
+        this.flushIntervalNanos = flushInterval.toNanos();
+        this.thread = new Thread(this::run, "VSQLite-write-behind");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    protected <PK> void save(Table<PK> table, PK primaryKey, List<Column<?>> columns, List<Object> values) {
+        this.lock.lock();
+        try {
+            PendingRow row = this.getPendingRow(table, primaryKey);
+            row.insert = true;
+            for (int i = 0; i < columns.size(); i++) {
+                row.values.put(columns.get(i), values.get(i));
+            }
+            this.mutated();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    protected <PK> void delete(Table<PK> table, PK primaryKey) {
+        this.lock.lock();
+        try {
+            PendingRow row = this.getPendingRow(table, primaryKey);
+            row.delete = true;
+            row.insert = false;
+            row.values.clear();
+            this.mutated();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /** Blocks until every write queued before this call is written
+     *
+     * @throws RuntimeException if a flush failed since the last call
+     */
+    public void flush() {
+        if (Thread.currentThread() == this.thread) return;
+        this.lock.lock();
+        try {
+            long request = ++this.flushRequests;
+            this.work.signal();
+            while (this.completedFlushRequests < request && this.thread.isAlive()) {
+                this.flushed.awaitUninterruptibly();
+            }
+            if (this.failure != null) {
+                RuntimeException failure = this.failure;
+                this.failure = null;
+                throw failure;
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /** Flushes the queue and stops the writer thread
+     */
+    public void shutdown() {
+        this.flush();
+        this.lock.lock();
+        try {
+            this.running = false;
+            this.work.signal();
+        } finally {
+            this.lock.unlock();
+        }
+        try {
+            this.thread.join(TimeUnit.SECONDS.toMillis(30));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return true if a write to any of the rows is queued or being written
+     */
+    protected <PK> boolean isQueued(Table<PK> table, Collection<PK> primaryKeys) {
+        this.lock.lock();
+        try {
+            for (PK primaryKey : primaryKeys) {
+                PendingKey key = new PendingKey(table.getName(), primaryKey);
+                if (this.pending.containsKey(key) || this.writing.containsKey(key)) return true;
+            }
+            return false;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    public int getPendingRows() {
+        this.lock.lock();
+        try {
+            return this.pending.size();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private PendingRow getPendingRow(Table<?> table, Object primaryKey) {
+        if (!this.running) throw new IllegalStateException("Write-behind queue has been shut down.");
+        PendingKey key = new PendingKey(table.getName(), primaryKey);
+        PendingRow row = this.pending.get(key);
+        while (row == null && this.pending.size() >= this.capacity && !this.database.getWriter().isHeldByCurrentThread()) {
+            this.work.signal();
+            this.notFull.awaitUninterruptibly();
+            row = this.pending.get(key);
+        }
+        if (row == null) {
+            row = new PendingRow(table, primaryKey);
+            this.pending.put(key, row);
+        }
+        return row;
+    }
+
+    private void mutated() {
+        if (++this.mutations >= this.flushSize) this.work.signal();
+    }
+
+    private void run() {
+        boolean running = true;
+        while (running) {
+            Map<PendingKey, PendingRow> batch;
+            long target;
+            this.lock.lock();
+            try {
+                long deadline = System.nanoTime() + this.flushIntervalNanos;
+                // A full queue is flushed right away, writes of new rows are blocked until then
+                while (this.running && this.mutations < this.flushSize && this.pending.size() < this.capacity
+                        && this.flushRequests == this.completedFlushRequests) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) break;
+                    this.work.awaitNanos(remaining);
+                }
+                running = this.running;
+                target = this.flushRequests;
+                batch = this.pending;
+                this.writing = batch;
+                this.pending = new LinkedHashMap<>();
+                this.mutations = 0;
+                this.notFull.signalAll();
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                this.lock.unlock();
+            }
+            RuntimeException error = null;
+            if (!batch.isEmpty()) {
+                try {
+                    this.write(batch);
+                } catch (RuntimeException e) {
+                    // One bad row rolls back the whole flush
+                    error = this.writeEach(batch);
+                }
+            }
+            this.lock.lock();
+            try {
+                if (error != null) this.failure = error;
+                this.writing = Map.of();
+                this.completedFlushRequests = target;
+                this.flushed.signalAll();
+            } finally {
+                this.lock.unlock();
+            }
+        }
+    }
+
+    private void write(Map<PendingKey, PendingRow> batch) {
+        Map<String, Table.Saver<Object>> savers = new HashMap<>();
+        Map<String, Table.Deleter<Object>> deleters = new HashMap<>();
+        Metrics metrics = this.database.getMetrics();
+        long start = metrics.isEnabled() ? System.nanoTime() : 0;
+        try {
+            this.database.getWriter().execute(connection -> {
+                for (PendingRow row : batch.values()) {
+                    String tableName = row.table.getName();
+                    if (row.delete) {
+                        Table.Deleter<Object> deleter = deleters.computeIfAbsent(tableName, name -> this.direct(Table.deleter(row.table, this.database)));
+                        deleter.delete(connection, row.primaryKey);
+                    }
+                    if (row.insert) {
+                        Table.Saver<Object> saver = savers.computeIfAbsent(tableName, name -> this.direct(Table.saver(row.table, this.database)));
+                        saver.upsert(connection, row.primaryKey, new ArrayList<>(row.values.keySet()), new ArrayList<>(row.values.values()));
+                    }
+                }
+                return null;
+            });
+        } catch (SQLException | RuntimeException e) {
+            if (metrics.isEnabled()) metrics.record(Metrics.ALL_TABLES, "writeBehind", System.nanoTime() - start, 0, true);
+            if (e instanceof RuntimeException runtimeException) throw runtimeException;
+            throw new RuntimeException("Error writing queued rows", e);
+        }
+        if (metrics.isEnabled()) metrics.record(Metrics.ALL_TABLES, "writeBehind", System.nanoTime() - start, batch.size(), false);
+    }
+
+    /** Writes the rows in a transaction each, dropping the rows that fail on their own.
+     * On a failure of the database itself the row and the rows after it are queued again.
+     *
+     * @return the last failure, or null if every row was written
+     */
+    private RuntimeException writeEach(Map<PendingKey, PendingRow> batch) {
+        RuntimeException failure = null;
+        Iterator<Map.Entry<PendingKey, PendingRow>> rows = batch.entrySet().iterator();
+        while (rows.hasNext()) {
+            Map.Entry<PendingKey, PendingRow> entry = rows.next();
+            try {
+                this.write(Map.of(entry.getKey(), entry.getValue()));
+            } catch (RuntimeException e) {
+                failure = e;
+                if (isDatabaseError(e)) {
+                    Map<PendingKey, PendingRow> unwritten = new LinkedHashMap<>();
+                    unwritten.put(entry.getKey(), entry.getValue());
+                    rows.forEachRemaining(remaining -> unwritten.put(remaining.getKey(), remaining.getValue()));
+                    this.requeue(unwritten);
+                    break;
+                }
+                PendingRow row = entry.getValue();
+                this.listener.onDroppedRow(row.table.getName(), row.primaryKey, e);
+            }
+        }
+        return failure;
+    }
+
+    private static boolean isDatabaseError(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLException sqlException && DATABASE_ERRORS.contains(sqlException.getErrorCode() & 0xff)) return true;
+        }
+        return false;
+    }
+
+    /** Puts unwritten rows back in front of the queue, with the writes queued since applied after them
+     */
+    private void requeue(Map<PendingKey, PendingRow> rows) {
+        this.lock.lock();
+        try {
+            for (Map.Entry<PendingKey, PendingRow> entry : this.pending.entrySet()) {
+                PendingRow older = rows.get(entry.getKey());
+                rows.put(entry.getKey(), older != null ? merge(older, entry.getValue()) : entry.getValue());
+            }
+            this.pending = rows;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @return the newer row, with the writes of the older row it does not replace
+     */
+    private static PendingRow merge(PendingRow older, PendingRow newer) {
+        if (newer.delete) return newer;
+        Map<Column<?>, Object> values = new LinkedHashMap<>(older.values);
+        values.putAll(newer.values);
+        newer.values.clear();
+        newer.values.putAll(values);
+        newer.delete = older.delete;
+        newer.insert = older.insert || newer.insert;
+        return newer;
+    }
+
+    private static void log(String table, Object primaryKey, RuntimeException cause) {
+        LOGGER.log(System.Logger.Level.WARNING, "Dropped queued write to row " + primaryKey + " of table " + table, cause);
+    }
+
+    private <T extends TableIO<Object>> T direct(T tableIO) {
+        tableIO.writeBehind = null;
+        return tableIO;
+    }
+
+    private record PendingKey(String table, Object primaryKey) {
+    }
+
+    private static class PendingRow {
+
+        private final Table<Object> table;
+        private final Object primaryKey;
+        private final Map<Column<?>, Object> values = new LinkedHashMap<>();
+        private boolean delete;
+        private boolean insert;
+
+        @SuppressWarnings("unchecked")
+        private PendingRow(Table<?> table, Object primaryKey) {
+            this.table = (Table<Object>) table;
+            this.primaryKey = primaryKey;
+        }
+    }
+
+    public interface Listener {
+        /** Called on the write-behind thread for a queued row that is dropped because writing it failed, e.g. on a constraint
+         */
+        void onDroppedRow(String table, Object primaryKey, RuntimeException cause);
+    }
+}
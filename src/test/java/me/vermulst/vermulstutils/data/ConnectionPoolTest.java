@@ -0,0 +1,84 @@
+package me.vermulst.vermulstutils.data;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConnectionPoolTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void readerReleasedAfterCloseIsClosed() {
+        ConnectionPool pool = new ConnectionPool(this.directory.resolve("pool.db").toString(), 2, StatementCache.DEFAULT_CAPACITY, PerformanceProfile.BALANCED);
+        DatabaseConnection reader = pool.acquireReader();
+        pool.close();
+        pool.releaseReader(reader);
+        assertTrue(reader.isClosed());
+
+        // reopening the pool has both readers available again
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            DatabaseConnection first = pool.acquireReader();
+            DatabaseConnection second = pool.acquireReader();
+            assertFalse(first.isClosed());
+            assertFalse(second.isClosed());
+            pool.releaseReader(first);
+            pool.releaseReader(second);
+            assertFalse(first.isClosed());
+        });
+        pool.close();
+    }
+
+    @Test
+    void waitingForReaderThrowsOnClose() {
+        ConnectionPool pool = new ConnectionPool(this.directory.resolve("waiting.db").toString(), 1, StatementCache.DEFAULT_CAPACITY, PerformanceProfile.BALANCED);
+        DatabaseConnection reader = pool.acquireReader();
+        CompletableFuture<DatabaseConnection> waiting = CompletableFuture.supplyAsync(pool::acquireReader);
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            // gives the waiting thread time to block on the full pool
+            Thread.sleep(200);
+            pool.close();
+            CompletionException exception = assertThrows(CompletionException.class, waiting::join);
+            assertInstanceOf(IllegalStateException.class, exception.getCause());
+        });
+        pool.releaseReader(reader);
+        assertTrue(reader.isClosed());
+    }
+
+    @Test
+    void loadInsideStreamConsumerWithSingleReader() {
+        Database database = Database.builder()
+                .path(this.directory.resolve("nested").toString())
+                .readPoolSize(1)
+                .addAndOverride(Table.builder(Integer.class)
+                        .name("players")
+                        .columnBuilders(List.of(
+                                Column.builder(Integer.class).name("id").columnProperties(Column.ColumnProperty.PRIMARY_KEY, Column.ColumnProperty.NOT_NULL),
+                                Column.builder(String.class).name("name"))))
+                .build();
+        Table<Integer> table = database.getTable(Integer.class, "players");
+        Table.<Integer>saver(table, database).saveRows(Map.of(1, List.of("alice"), 2, List.of("bob")));
+        Table.Loader<Integer> loader = Table.loader(table, database);
+        List<Object> names = new ArrayList<>();
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            try (Stream<Row<Integer>> rows = loader.stream()) {
+                rows.forEach(row -> names.add(loader.loadRow(row.getPrimaryKey()).get(0)));
+            }
+            // the extra reader of the consumer was closed, the pooled one is still usable
+            assertEquals(2, loader.count());
+        });
+        assertEquals(List.of("alice", "bob"), names);
+        database.closeConnection();
+    }
+}
@@ -0,0 +1,106 @@
+package me.vermulst.vermulstutils.data;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DeleterTest {
+
+    @TempDir
+    Path directory;
+
+    private static Table.Builder<Integer> players() {
+        return Table.builder(Integer.class)
+                .name("players")
+                .columnBuilders(List.of(
+                        Column.builder(Integer.class).name("id").columnProperties(Column.ColumnProperty.PRIMARY_KEY, Column.ColumnProperty.NOT_NULL),
+                        Column.builder(Integer.class).name("level")));
+    }
+
+    private static void saveLevels(Table<Integer> table, Database database, int rows) {
+        Map<Integer, List<Object>> levels = new HashMap<>();
+        for (int i = 0; i < rows; i++) {
+            levels.put(i, List.of(i));
+        }
+        Table.<Integer>saver(table, database).saveRows(levels);
+    }
+
+    @Test
+    void deleteEntriesAcrossChunks() {
+        Database database = Database.builder()
+                .path(this.directory.resolve("entries").toString())
+                .addAndOverride(players())
+                .build();
+        Table<Integer> table = database.getTable(Integer.class, "players");
+        saveLevels(table, database, 1000);
+        // 601 keys take chunks of 512, 64, 8, 8 and 8 padded ones, the missing key is not counted
+        List<Integer> keys = new ArrayList<>();
+        for (int i = 0; i < 600; i++) {
+            keys.add(i);
+        }
+        keys.add(5000);
+        Table.Deleter<Integer> deleter = Table.deleter(table, database);
+        assertEquals(600, deleter.deleteEntries(keys));
+        Table.Loader<Integer> loader = Table.loader(table, database);
+        assertEquals(400, loader.count());
+        assertEquals(600, (int) loader.min(table.getColumn(Integer.class, "level")));
+        assertEquals(0, deleter.deleteEntries(List.of()));
+        database.closeConnection();
+    }
+
+    @Test
+    void deleteWhereAndTruncate() {
+        Database database = Database.builder()
+                .path(this.directory.resolve("where").toString())
+                .addAndOverride(players())
+                .build();
+        Table<Integer> table = database.getTable(Integer.class, "players");
+        Column<Integer> level = table.getColumn(Integer.class, "level");
+        saveLevels(table, database, 100);
+        Table.Deleter<Integer> deleter = Table.deleter(table, database);
+        assertEquals(50, deleter.deleteWhere(level.ge(50)));
+        assertEquals(0, deleter.deleteWhere(level.ge(50)));
+        Table.Loader<Integer> loader = Table.loader(table, database);
+        assertEquals(50, loader.count());
+        assertEquals(50, deleter.truncate());
+        assertEquals(0, loader.count());
+        database.closeConnection();
+    }
+
+    @Test
+    void deletesDropPendingCachedWrites() {
+        Database database = Database.builder()
+                .path(this.directory.resolve("pending").toString())
+                .writeBehind(100, Duration.ofHours(1), 1000)
+                .addAndOverride(players().cache(100))
+                .build();
+        Table<Integer> table = database.getTable(Integer.class, "players");
+        Column<Integer> level = table.getColumn(Integer.class, "level");
+        Table.Saver<Integer> saver = Table.saver(table, database);
+        for (int i = 0; i < 10; i++) {
+            saver.saveValue(level, i, i);
+        }
+        database.flush();
+        saver.saveValue(level, 1, 10);
+        saver.saveValue(level, 20, 20);
+        Table.Deleter<Integer> deleter = Table.deleter(table, database);
+        // the cached writes are dropped rather than written and then deleted, row 20 was never written
+        assertEquals(2, deleter.deleteEntries(List.of(0, 1, 20)));
+        assertEquals(3, deleter.deleteWhere(level.lt(5)));
+        Table.Loader<Integer> loader = Table.loader(table, database);
+        // deleted rows are not served from the cache
+        assertNull(loader.loadValue(level, 0));
+        assertNull(loader.loadValue(level, 4));
+        assertEquals(5, (int) loader.loadValue(level, 5));
+        assertEquals(5, loader.count());
+        database.closeConnection();
+    }
+}
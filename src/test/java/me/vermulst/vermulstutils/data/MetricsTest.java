@@ -0,0 +1,105 @@
+package me.vermulst.vermulstutils.data;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetricsTest {
+
+    @TempDir
+    Path directory;
+
+    private Database database(String name, boolean metrics, boolean registerMBeans) {
+        Database.Builder builder = Database.builder()
+                .path(this.directory.resolve(name).toString())
+                .addAndOverride(Table.builder(Integer.class)
+                        .name("players")
+                        .columnBuilders(List.of(
+                                Column.builder(Integer.class).name("id").columnProperties(Column.ColumnProperty.PRIMARY_KEY, Column.ColumnProperty.NOT_NULL),
+                                Column.builder(String.class).name("name").columnProperties(Column.ColumnProperty.UNIQUE))));
+        if (metrics) builder.metrics(registerMBeans);
+        return builder.build();
+    }
+
+    @Test
+    void recordsCallsRowsAndFailures() {
+        Database database = this.database("metrics", true, false);
+        Table<Integer> table = database.getTable(Integer.class, "players");
+        Table.Saver<Integer> saver = Table.saver(table, database);
+        saver.saveRows(Map.of(1, List.of("alice"), 2, List.of("bob")));
+        saver.saveRow(3, List.of("carol"));
+        assertThrows(RuntimeException.class, () -> saver.saveRow(4, List.of("alice")));
+        Table.Loader<Integer> loader = Table.loader(table, database);
+        loader.loadRow(1);
+        loader.loadRow(5);
+
+        Metrics metrics = database.getMetrics();
+        OperationMetrics saveRows = metrics.get("players", "saveRows");
+        assertEquals(1, saveRows.getCalls());
+        assertEquals(2, saveRows.getRows());
+        OperationMetrics save = metrics.get("players", "save");
+        assertEquals(2, save.getCalls());
+        assertEquals(1, save.getFailures());
+        assertEquals(1, save.getRows());
+        OperationMetrics loadRow = metrics.get("players", "loadRow");
+        assertEquals(2, loadRow.getCalls());
+        // only the row that exists is counted
+        assertEquals(1, loadRow.getRows());
+        assertTrue(loadRow.getMaxLatencyMillis() > 0);
+        assertTrue(loadRow.getP50LatencyMillis() <= loadRow.getMaxLatencyMillis());
+
+        metrics.reset();
+        assertEquals(0, metrics.get("players", "loadRow").getCalls());
+        database.closeConnection();
+    }
+
+    @Test
+    void listenersReceiveEveryOperation() {
+        Database database = this.database("listener", true, false);
+        Table<Integer> table = database.getTable(Integer.class, "players");
+        List<String> operations = new CopyOnWriteArrayList<>();
+        Metrics.Listener listener = (tableName, operation, nanos, rows, failed) -> operations.add(tableName + "." + operation + ":" + rows);
+        database.getMetrics().addListener(listener);
+        Table.<Integer>saver(table, database).saveRow(1, List.of("alice"));
+        Table.<Integer>loader(table, database).loadRow(1);
+        database.getMetrics().removeListener(listener);
+        Table.<Integer>loader(table, database).loadRow(1);
+        assertEquals(List.of("players.save:1", "players.loadRow:1"), operations);
+        database.closeConnection();
+    }
+
+    @Test
+    void disabledMetricsRecordNothing() {
+        Database database = this.database("disabled", false, false);
+        Table<Integer> table = database.getTable(Integer.class, "players");
+        Table.<Integer>saver(table, database).saveRow(1, List.of("alice"));
+        Table.<Integer>loader(table, database).loadRow(1);
+        assertFalse(database.getMetrics().isEnabled());
+        assertTrue(database.getMetrics().getOperations().isEmpty());
+        database.closeConnection();
+    }
+
+    @Test
+    void registersOperationsAsMBeans() throws Exception {
+        Database database = this.database("jmx", true, true);
+        Table<Integer> table = database.getTable(Integer.class, "players");
+        Table.<Integer>loader(table, database).loadRow(1);
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(Metrics.JMX_DOMAIN + ":type=Operation,database=" + ObjectName.quote("jmx.db") +
+                ",table=" + ObjectName.quote("players") + ",operation=" + ObjectName.quote("loadRow"));
+        assertTrue(server.isRegistered(name));
+        assertEquals(1L, server.getAttribute(name, "Calls"));
+        database.getMetrics().unregisterMBeans();
+        assertFalse(server.isRegistered(name));
+        database.closeConnection();
+    }
+}
@@ -0,0 +1,55 @@
+package me.vermulst.vermulstutils.data;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ObjectDoubleMapTest {
+
+    @Test
+    void putGetAndOverwrite() {
+        ObjectDoubleMap<String> map = new ObjectDoubleMap<>();
+        assertTrue(map.isEmpty());
+        map.put("a", 1.5);
+        map.put("b", Double.NaN);
+        map.put("a", 3.5);
+        assertEquals(2, map.size());
+        assertEquals(3.5, map.get("a"));
+        assertTrue(Double.isNaN(map.get("b")));
+        assertEquals(0.0, map.get("c"));
+        assertEquals(-1.0, map.getOrDefault("c", -1.0));
+        assertTrue(map.containsKey("b"));
+        assertFalse(map.containsKey("c"));
+        assertThrows(NullPointerException.class, () -> map.put(null, 1.0));
+    }
+
+    @Test
+    void growsPastExpectedSize() {
+        ObjectDoubleMap<Integer> map = new ObjectDoubleMap<>(4);
+        for (int i = 0; i < 10_000; i++) {
+            map.put(i * 31, i / 2.0);
+        }
+        assertEquals(10_000, map.size());
+        Map<Integer, Double> copy = new HashMap<>();
+        map.forEach(copy::put);
+        assertEquals(10_000, copy.size());
+        for (int i = 0; i < 10_000; i++) {
+            assertEquals(i / 2.0, map.get(i * 31));
+        }
+    }
+
+    @Test
+    void clearRemovesAllKeys() {
+        ObjectDoubleMap<String> map = new ObjectDoubleMap<>();
+        map.put("a", 1.0);
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertFalse(map.containsKey("a"));
+        map.put("a", 2.0);
+        assertEquals(2.0, map.get("a"));
+        assertEquals("{a=2.0}", map.toString());
+    }
+}
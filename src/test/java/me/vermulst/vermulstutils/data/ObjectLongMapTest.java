@@ -0,0 +1,55 @@
+package me.vermulst.vermulstutils.data;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ObjectLongMapTest {
+
+    @Test
+    void putGetAndOverwrite() {
+        ObjectLongMap<String> map = new ObjectLongMap<>();
+        assertTrue(map.isEmpty());
+        map.put("a", 1);
+        map.put("b", Long.MIN_VALUE);
+        map.put("a", 3);
+        assertEquals(2, map.size());
+        assertEquals(3, map.get("a"));
+        assertEquals(Long.MIN_VALUE, map.get("b"));
+        assertEquals(0, map.get("c"));
+        assertEquals(-1, map.getOrDefault("c", -1));
+        assertTrue(map.containsKey("b"));
+        assertFalse(map.containsKey("c"));
+        assertThrows(NullPointerException.class, () -> map.put(null, 1));
+    }
+
+    @Test
+    void growsPastExpectedSize() {
+        ObjectLongMap<Integer> map = new ObjectLongMap<>(4);
+        for (int i = 0; i < 10_000; i++) {
+            map.put(i * 31, i);
+        }
+        assertEquals(10_000, map.size());
+        Map<Integer, Long> copy = new HashMap<>();
+        map.forEach(copy::put);
+        assertEquals(10_000, copy.size());
+        for (int i = 0; i < 10_000; i++) {
+            assertEquals(i, map.get(i * 31));
+        }
+    }
+
+    @Test
+    void clearRemovesAllKeys() {
+        ObjectLongMap<String> map = new ObjectLongMap<>();
+        map.put("a", 1);
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertFalse(map.containsKey("a"));
+        map.put("a", 2);
+        assertEquals(2, map.get("a"));
+        assertEquals("{a=2}", map.toString());
+    }
+}
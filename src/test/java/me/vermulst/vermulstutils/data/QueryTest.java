@@ -0,0 +1,162 @@
+package me.vermulst.vermulstutils.data;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QueryTest {
+
+    @TempDir
+    Path directory;
+
+    private Database database;
+    private Table<Integer> table;
+    private Column<String> name;
+    private Column<String> team;
+    private Column<Integer> level;
+    private Column<Double> score;
+
+    private Table.Loader<Integer> players() {
+        this.database = Database.builder()
+                .path(this.directory.resolve("query").toString())
+                .addAndOverride(Table.builder(Integer.class)
+                        .name("players")
+                        .columnBuilders(List.of(
+                                Column.builder(Integer.class).name("id").columnProperties(Column.ColumnProperty.PRIMARY_KEY, Column.ColumnProperty.NOT_NULL),
+                                Column.builder(String.class).name("name"),
+                                Column.builder(String.class).name("team"),
+                                Column.builder(Integer.class).name("level"),
+                                Column.builder(Double.class).name("score"))))
+                .build();
+        this.table = this.database.getTable(Integer.class, "players");
+        this.name = this.table.getColumn(String.class, "name");
+        this.team = this.table.getColumn(String.class, "team");
+        this.level = this.table.getColumn(Integer.class, "level");
+        this.score = this.table.getColumn(Double.class, "score");
+        Table.Saver<Integer> saver = Table.saver(this.table, this.database);
+        saver.saveRows(Map.of(
+                1, List.of("alice", "red", 10, 1.5),
+                2, List.of("bob", "blue", 20, 2.5)));
+        // NULL values are left out of the saved columns
+        saver.saveRow(3, List.of(this.name, this.team, this.level), List.of("carol", "red", 30));
+        saver.saveRow(4, List.of(this.name, this.team, this.score), List.of("dave", "blue", 4.0));
+        saver.saveRow(5, List.of(this.name, this.level, this.score), List.of("erin", 50, 5.0));
+        return Table.loader(this.table, this.database);
+    }
+
+    private static List<Integer> keys(List<Row<Integer>> rows) {
+        List<Integer> keys = new ArrayList<>(rows.size());
+        for (Row<Integer> row : rows) {
+            keys.add(row.getPrimaryKey());
+        }
+        return keys;
+    }
+
+    @Test
+    void filtersOrdersAndLimits() {
+        Table.Loader<Integer> loader = this.players();
+        assertEquals(List.of(5, 3, 2), keys(loader.query().where(this.level.ge(20)).orderBy(this.level.desc()).list()));
+        assertEquals(List.of(3, 2), keys(loader.query().where(this.level.ge(20)).orderBy(this.level.desc()).offset(1).limit(2).list()));
+        assertEquals(List.of(1, 3), keys(loader.query().where(this.team.eq("red")).orderBy(this.name.asc()).list()));
+        assertEquals(List.of(2, 4), keys(loader.query().where(this.team.eq("blue").and(this.name.like("%b%")).or(this.level.isNull())).orderBy(this.name.asc()).list()));
+        assertEquals(List.of(1, 2), keys(loader.query().where(this.name.in(List.of("alice", "bob"))).orderBy(this.name.asc()).list()));
+        assertEquals(List.of(2, 3), keys(loader.query().where(this.level.between(20, 30)).orderBy(this.level.asc()).list()));
+        assertEquals(List.of(5), keys(loader.query().where(this.team.isNull()).list()));
+        assertEquals(List.of(), keys(loader.query().where(Condition.never()).list()));
+        assertEquals(5, loader.query().where(Condition.always()).list().size());
+        this.database.closeConnection();
+    }
+
+    @Test
+    void selectsOnlyGivenColumns() {
+        Table.Loader<Integer> loader = this.players();
+        Row<Integer> row = loader.query().select(this.name).where(this.name.eq("bob")).first();
+        assertEquals(2, (int) row.getPrimaryKey());
+        assertEquals(List.of("bob"), row.getValues());
+        assertEquals("bob", row.get(this.name));
+        assertNull(loader.query().where(this.name.eq("nobody")).first());
+        this.database.closeConnection();
+    }
+
+    @Test
+    void firstKeepsLimitOfQuery() {
+        Table.Loader<Integer> loader = this.players();
+        Query<Integer> query = loader.query().orderBy(this.level.asc()).where(this.level.isNotNull());
+        assertEquals(1, (int) query.first().getPrimaryKey());
+        assertEquals(4, query.list().size());
+        this.database.closeConnection();
+    }
+
+    @Test
+    void aggregatesSkipNullValues() {
+        Table.Loader<Integer> loader = this.players();
+        assertEquals(5, loader.count());
+        assertEquals(110, loader.sumLong(this.level));
+        assertEquals(13.0, loader.sumDouble(this.score));
+        assertEquals(27.5, loader.avg(this.level));
+        assertEquals(10, (int) loader.min(this.level));
+        assertEquals("erin", loader.max(this.name));
+
+        Query<Integer> red = loader.query().where(this.team.eq("red"));
+        assertEquals(2, red.count());
+        assertEquals(40, red.sumLong(this.level));
+        assertEquals(1.5, red.sumDouble(this.score));
+        assertEquals(1.5, red.avg(this.score));
+
+        // ordering and limits do not change an aggregate
+        assertEquals(5, loader.query().orderBy(this.level.desc()).limit(1).count());
+        this.database.closeConnection();
+    }
+
+    @Test
+    void aggregatesOfNoRows() {
+        Table.Loader<Integer> loader = this.players();
+        Query<Integer> none = loader.query().where(Condition.never());
+        assertEquals(0, none.count());
+        assertEquals(0, none.sumLong(this.level));
+        assertEquals(0.0, none.sumDouble(this.score));
+        assertNull(none.avg(this.level));
+        assertNull(none.min(this.level));
+        assertNull(none.max(this.name));
+        this.database.closeConnection();
+    }
+
+    @Test
+    void groupsLeaveOutNullGroup() {
+        Table.Loader<Integer> loader = this.players();
+        Query.Grouping<Integer, String> teams = loader.groupBy(this.team);
+        ObjectLongMap<String> counts = teams.count();
+        assertEquals(2, counts.size());
+        assertEquals(2, counts.get("red"));
+        assertEquals(2, counts.get("blue"));
+        assertFalse(counts.containsKey("green"));
+
+        ObjectLongMap<String> levels = teams.sumLong(this.level);
+        assertEquals(40, levels.get("red"));
+        assertEquals(20, levels.get("blue"));
+
+        ObjectDoubleMap<String> scores = teams.sumDouble(this.score);
+        assertEquals(1.5, scores.get("red"));
+        assertEquals(6.5, scores.get("blue"));
+        assertEquals(20.0, teams.avg(this.level).get("blue"));
+
+        assertEquals(Map.of("red", "alice", "blue", "bob"), teams.min(this.name));
+        assertEquals(Map.of("red", 30, "blue", 20), teams.max(this.level));
+
+        assertEquals(1, loader.query().where(this.level.gt(10)).groupBy(this.team).count().get("red"));
+        this.database.closeConnection();
+    }
+
+    @Test
+    void sumLongRejectsDecimalColumn() {
+        Table.Loader<Integer> loader = this.players();
+        assertThrows(IllegalArgumentException.class, () -> loader.sumLong(this.score));
+        this.database.closeConnection();
+    }
+}
@@ -0,0 +1,135 @@
+package me.vermulst.vermulstutils.data;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RowCacheTest {
+
+    @TempDir
+    Path directory;
+
+    private Database database(int cacheRows, int writeBehindCapacity) {
+        return Database.builder()
+                .path(this.directory.resolve("cache").toString())
+                .writeBehind(writeBehindCapacity, Duration.ofHours(1), 1000)
+                .addAndOverride(Table.builder(Integer.class)
+                        .name("players")
+                        .columnBuilders(List.of(
+                                Column.builder(Integer.class).name("id").columnProperties(Column.ColumnProperty.PRIMARY_KEY, Column.ColumnProperty.NOT_NULL),
+                                Column.builder(Long.class).name("xp").columnProperties(Column.ColumnProperty.NOT_NULL).defaultValue(0L)))
+                        .cache(cacheRows))
+                .build();
+    }
+
+    @Test
+    void flushWithMoreDirtyRowsThanWriteBehindCapacity() {
+        Database database = this.database(100, 2);
+        Table<Integer> table = database.getTable(Integer.class, "players");
+        Column<Long> xp = table.getColumn(Long.class, "xp");
+        Table.Saver<Integer> saver = Table.saver(table, database);
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            for (int i = 0; i < 10; i++) {
+                saver.saveValue(xp, i, (long) i * 10);
+            }
+            database.flush();
+        });
+        assertEquals(10, table.getCache().getFlushedRows());
+        Table.Loader<Integer> loader = Table.loader(table, database);
+        assertEquals(10, loader.count());
+        assertEquals(90L, (long) loader.loadValue(xp, 9));
+        database.closeConnection();
+    }
+
+    @Test
+    void evictInsideWriterActionWithMoreDirtyRowsThanWriteBehindCapacity() {
+        Database database = this.database(1, 2);
+        Table<Integer> table = database.getTable(Integer.class, "players");
+        Column<Long> xp = table.getColumn(Long.class, "xp");
+        Table.Saver<Integer> saver = Table.saver(table, database);
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            // every save evicts the row before it into the queue while the writer is held
+            saver.execute("saveAll", connection -> {
+                for (int i = 0; i < 10; i++) {
+                    saver.saveValue(xp, i, (long) i * 10);
+                }
+                return null;
+            });
+            database.flush();
+        });
+        assertEquals(10, Table.<Integer>loader(table, database).count());
+        database.closeConnection();
+    }
+
+    private Database database(int cacheRows) {
+        return Database.builder()
+                .path(this.directory.resolve("direct").toString())
+                .addAndOverride(Table.builder(Integer.class)
+                        .name("players")
+                        .columnBuilders(List.of(
+                                Column.builder(Integer.class).name("id").columnProperties(Column.ColumnProperty.PRIMARY_KEY, Column.ColumnProperty.NOT_NULL),
+                                Column.builder(String.class).name("name"),
+                                Column.builder(Long.class).name("xp")))
+                        .cache(cacheRows))
+                .build();
+    }
+
+    @Test
+    void loadRowSeesPartiallyCachedDirtyRow() {
+        Database database = this.database(100);
+        Table<Integer> table = database.getTable(Integer.class, "players");
+        Table.Saver<Integer> saver = Table.saver(table, database);
+        saver.saveValue(table.getColumn(String.class, "name"), 1, "alice");
+        Table.Loader<Integer> loader = Table.loader(table, database);
+        assertEquals(Arrays.asList("alice", null), loader.loadRow(1));
+        database.flush();
+        assertEquals(Arrays.asList("alice", null), loader.loadRow(1));
+        database.closeConnection();
+    }
+
+    @Test
+    void flushWhileAnotherThreadHoldsTheWriter() {
+        Database database = this.database(100);
+        Table<Integer> table = database.getTable(Integer.class, "players");
+        Column<Long> xp = table.getColumn(Long.class, "xp");
+        Table.Saver<Integer> saver = Table.saver(table, database);
+        saver.saveValue(xp, 1, 10L);
+        CountDownLatch writerHeld = new CountDownLatch(1);
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            CompletableFuture<Void> writer = CompletableFuture.runAsync(() -> {
+                try {
+                    saver.<Void>execute("saveInTransaction", connection -> {
+                        writerHeld.countDown();
+                        // gives the flush below time to block on the writer
+                        try {
+                            Thread.sleep(200);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        saver.saveValue(xp, 2, 20L);
+                        return null;
+                    });
+                } catch (SQLException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            writerHeld.await();
+            table.getCache().flush();
+            writer.join();
+            database.flush();
+        });
+        Table.Loader<Integer> loader = Table.loader(table, database);
+        assertEquals(20L, (long) loader.loadValue(xp, 2));
+        assertEquals(2, loader.count());
+        database.closeConnection();
+    }
+}
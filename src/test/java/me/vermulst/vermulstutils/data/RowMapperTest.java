@@ -0,0 +1,110 @@
+package me.vermulst.vermulstutils.data;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RowMapperTest {
+
+    @TempDir
+    Path directory;
+
+    private record Player(int id, String name, long xp) {
+    }
+
+    private record Name(int id, String name) {
+    }
+
+    private record WrongType(int id, int name) {
+    }
+
+    private record NoPrimaryKey(String name) {
+    }
+
+    private static class Account {
+        private int id;
+        private String name;
+        private Long xp;
+        private transient String note = "unmapped";
+    }
+
+    private Database database() {
+        return Database.builder()
+                .path(this.directory.resolve("mapper").toString())
+                .addAndOverride(Table.builder(Integer.class)
+                        .name("players")
+                        .columnBuilders(List.of(
+                                Column.builder(Integer.class).name("id").columnProperties(Column.ColumnProperty.PRIMARY_KEY, Column.ColumnProperty.NOT_NULL),
+                                Column.builder(String.class).name("name"),
+                                Column.builder(Long.class).name("xp")))
+                        .mappers(Player.class, Account.class))
+                .build();
+    }
+
+    @Test
+    void recordRoundTrip() {
+        Database database = this.database();
+        Table<Integer> table = database.getTable(Integer.class, "players");
+        Table.Saver<Integer> saver = Table.saver(table, database);
+        saver.save(new Player(1, "alice", 100));
+        saver.save(new Player(2, "bob", 200));
+        Table.Loader<Integer> loader = Table.loader(table, database);
+        assertEquals(new Player(1, "alice", 100), loader.loadAs(1, Player.class));
+        assertNull(loader.loadAs(3, Player.class));
+        assertEquals(List.of(new Player(2, "bob", 200)),
+                loader.query().where(table.getColumn(Long.class, "xp").gt(100L)).listAs(Player.class));
+        database.closeConnection();
+    }
+
+    @Test
+    void partialRecordKeepsOtherColumns() {
+        Database database = this.database();
+        Table<Integer> table = database.getTable(Integer.class, "players");
+        Table.Saver<Integer> saver = Table.saver(table, database);
+        saver.save(new Player(1, "alice", 100));
+        saver.save(new Name(1, "alicia"));
+        Table.Loader<Integer> loader = Table.loader(table, database);
+        assertEquals(new Player(1, "alicia", 100), loader.loadAs(1, Player.class));
+        assertEquals(new Name(1, "alicia"), loader.loadAs(1, Name.class));
+        database.closeConnection();
+    }
+
+    @Test
+    void primitiveComponentOfNullColumnIsZero() {
+        Database database = this.database();
+        Table<Integer> table = database.getTable(Integer.class, "players");
+        Table.<Integer>saver(table, database).save(new Name(1, "alice"));
+        assertEquals(new Player(1, "alice", 0), Table.<Integer>loader(table, database).loadAs(1, Player.class));
+        database.closeConnection();
+    }
+
+    @Test
+    void pojoRoundTripSkipsTransientFields() {
+        Database database = this.database();
+        Table<Integer> table = database.getTable(Integer.class, "players");
+        Account account = new Account();
+        account.id = 1;
+        account.name = "alice";
+        Table.<Integer>saver(table, database).save(account);
+        Account loaded = Table.<Integer>loader(table, database).loadAs(1, Account.class);
+        assertEquals(1, loaded.id);
+        assertEquals("alice", loaded.name);
+        assertNull(loaded.xp);
+        assertEquals("unmapped", loaded.note);
+        database.closeConnection();
+    }
+
+    @Test
+    void typesThatDoNotMatchTheColumnsFail() {
+        Database database = this.database();
+        Table<Integer> table = database.getTable(Integer.class, "players");
+        assertThrows(IllegalArgumentException.class, () -> table.mapper(WrongType.class));
+        assertThrows(IllegalArgumentException.class, () -> table.mapper(NoPrimaryKey.class));
+        assertSame(table.mapper(Player.class), table.mapper(Player.class));
+        database.closeConnection();
+    }
+}
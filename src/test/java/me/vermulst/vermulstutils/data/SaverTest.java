@@ -0,0 +1,177 @@
+package me.vermulst.vermulstutils.data;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SaverTest {
+
+    @TempDir
+    Path directory;
+
+    private static Table.Builder<Integer> players() {
+        return Table.builder(Integer.class)
+                .name("players")
+                .columnBuilders(List.of(
+                        Column.builder(Integer.class).name("id").columnProperties(Column.ColumnProperty.PRIMARY_KEY, Column.ColumnProperty.NOT_NULL),
+                        Column.builder(String.class).name("name").columnProperties(Column.ColumnProperty.NOT_NULL),
+                        Column.builder(Long.class).name("gold")));
+    }
+
+    private Database database() {
+        return Database.builder()
+                .path(this.directory.resolve("saver").toString())
+                .addAndOverride(players())
+                .build();
+    }
+
+    @Test
+    void partialRowUpdatesExistingRowWithNotNullColumn() {
+        Database database = this.database();
+        Table<Integer> table = database.getTable(Integer.class, "players");
+        Column<Long> gold = table.getColumn(Long.class, "gold");
+        Column<String> name = table.getColumn(String.class, "name");
+        Table.Saver<Integer> saver = Table.saver(table, database);
+        saver.saveRow(1, List.of("alice", 5L));
+        saver.saveRow(2, List.of("bob", 6L));
+
+        // name is NOT NULL without a default, an insert of only the key and gold would fail on it
+        saver.saveRow(1, List.of(gold), List.of(7L));
+        saver.saveRows(List.of(gold), Map.of(1, List.of(8L), 2, List.of(9L)));
+        saver.saveEntry(2);
+        // a partial row that does not exist yet is still inserted
+        saver.saveRow(3, List.of(name), List.of("carol"));
+
+        Table.Loader<Integer> loader = Table.loader(table, database);
+        assertEquals(List.of("alice", 8L), loader.loadRow(1));
+        assertEquals(List.of("bob", 9L), loader.loadRow(2));
+        assertEquals(Arrays.asList("carol", null), loader.loadRow(3));
+        database.closeConnection();
+    }
+
+    private static void assertSaveValueUpdatesExistingRow(Database database) {
+        Table<Integer> table = database.getTable(Integer.class, "players");
+        Column<Long> gold = table.getColumn(Long.class, "gold");
+        Table.Saver<Integer> saver = Table.saver(table, database);
+        saver.saveRow(1, List.of("alice", 5L));
+        database.flush();
+        saver.saveValue(gold, 1, 7L);
+        database.flush();
+        // loadRows reads the table, not the row cache
+        assertEquals(List.of("alice", 7L), Table.<Integer>loader(table, database).loadRows(List.of(1)).get(1));
+        database.closeConnection();
+    }
+
+    @Test
+    void saveValueUpdatesExistingRow() {
+        assertSaveValueUpdatesExistingRow(this.database());
+    }
+
+    @Test
+    void saveValueThroughCacheUpdatesExistingRow() {
+        assertSaveValueUpdatesExistingRow(Database.builder()
+                .path(this.directory.resolve("cache").toString())
+                .addAndOverride(players().cache(10))
+                .build());
+    }
+
+    @Test
+    void saveValueThroughWriteBehindUpdatesExistingRow() {
+        assertSaveValueUpdatesExistingRow(Database.builder()
+                .path(this.directory.resolve("queue").toString())
+                .writeBehind(10, Duration.ofHours(1), 1000)
+                .addAndOverride(players())
+                .build());
+    }
+
+    private static void assertPrimitiveSaves(Database database) {
+        Table<Integer> table = database.getTable(Integer.class, "stats");
+        Column<Integer> level = table.getColumn(Integer.class, "level");
+        Column<Double> ratio = table.getColumn(Double.class, "ratio");
+        Table.Saver<Integer> saver = Table.saver(table, database);
+        saver.saveRow(1, List.of("alice", 1, 0.5));
+
+        assertThrows(IllegalArgumentException.class, () -> saver.saveLong(ratio, 1, 2));
+        assertThrows(IllegalArgumentException.class, () -> saver.saveDouble(level, 1, 2.0));
+        assertThrows(IllegalArgumentException.class, () -> saver.saveLong(level, 1, 1L << 40));
+        ObjectLongMap<Integer> levels = new ObjectLongMap<>();
+        levels.put(1, Integer.MIN_VALUE - 1L);
+        assertThrows(IllegalArgumentException.class, () -> saver.saveLongColumn(level, levels));
+
+        // existing row with a NOT NULL name that is not written
+        saver.saveLong(level, 1, 3);
+        saver.saveDouble(ratio, 1, 0.25);
+        database.flush();
+        Table.Loader<Integer> loader = Table.loader(table, database);
+        assertEquals(3, loader.loadLongColumn(level).get(1));
+        assertEquals(0.25, loader.loadDoubleColumn(ratio).get(1));
+        database.closeConnection();
+    }
+
+    private static Table.Builder<Integer> stats() {
+        return Table.builder(Integer.class)
+                .name("stats")
+                .columnBuilders(List.of(
+                        Column.builder(Integer.class).name("id").columnProperties(Column.ColumnProperty.PRIMARY_KEY, Column.ColumnProperty.NOT_NULL),
+                        Column.builder(String.class).name("name").columnProperties(Column.ColumnProperty.NOT_NULL),
+                        Column.builder(Integer.class).name("level"),
+                        Column.builder(Double.class).name("ratio")));
+    }
+
+    @Test
+    void primitiveSavesCheckColumnTypeAndRange() {
+        assertPrimitiveSaves(Database.builder()
+                .path(this.directory.resolve("stats").toString())
+                .addAndOverride(stats())
+                .build());
+    }
+
+    @Test
+    void primitiveSavesThroughCacheCheckColumnTypeAndRange() {
+        assertPrimitiveSaves(Database.builder()
+                .path(this.directory.resolve("cachedStats").toString())
+                .addAndOverride(stats().cache(10))
+                .build());
+    }
+
+    @Test
+    void primitiveColumnsRoundTrip() {
+        Database database = Database.builder()
+                .path(this.directory.resolve("columns").toString())
+                .addAndOverride(stats())
+                .build();
+        Table<Integer> table = database.getTable(Integer.class, "stats");
+        Column<Integer> level = table.getColumn(Integer.class, "level");
+        Column<Double> ratio = table.getColumn(Double.class, "ratio");
+        Table.Saver<Integer> saver = Table.saver(table, database);
+        saver.saveRows(List.of(table.getColumn(String.class, "name")), Map.of(1, List.of("a"), 2, List.of("b"), 3, List.of("c")));
+        ObjectLongMap<Integer> levels = new ObjectLongMap<>();
+        levels.put(1, 10);
+        levels.put(2, -20);
+        saver.saveLongColumn(level, levels);
+        ObjectDoubleMap<Integer> ratios = new ObjectDoubleMap<>();
+        ratios.put(2, 0.5);
+        saver.saveDoubleColumn(ratio, ratios);
+
+        Table.Loader<Integer> loader = Table.loader(table, database);
+        ObjectLongMap<Integer> loadedLevels = loader.loadLongColumn(level);
+        // row 3 is NULL and left out
+        assertEquals(2, loadedLevels.size());
+        assertEquals(10, loadedLevels.get(1));
+        assertEquals(-20, loadedLevels.get(2));
+        assertFalse(loadedLevels.containsKey(3));
+        ObjectDoubleMap<Integer> loadedRatios = loader.loadDoubleColumn(ratio);
+        assertEquals(1, loadedRatios.size());
+        assertEquals(0.5, loadedRatios.get(2));
+        assertThrows(IllegalArgumentException.class, () -> loader.loadLongColumn(ratio));
+        assertThrows(IllegalArgumentException.class, () -> loader.loadDoubleColumn(level));
+        database.closeConnection();
+    }
+}
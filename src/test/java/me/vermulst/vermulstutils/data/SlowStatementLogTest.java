@@ -0,0 +1,90 @@
+package me.vermulst.vermulstutils.data;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SlowStatementLogTest {
+
+    @TempDir
+    Path directory;
+
+    private Database database(Duration threshold, List<SlowStatementLog.SlowStatement> statements) {
+        Column<String> team = Column.builder(String.class).name("team").build();
+        return Database.builder()
+                .path(this.directory.resolve("slow").toString())
+                .slowStatementLog(threshold, statements::add)
+                .addAndOverride(Table.builder(Integer.class)
+                        .name("players")
+                        .columns(
+                                Column.builder(Integer.class).name("id").columnProperties(Column.ColumnProperty.PRIMARY_KEY, Column.ColumnProperty.NOT_NULL).build(),
+                                Column.builder(String.class).name("name").build(),
+                                team)
+                        .index("players_team", team))
+                .build();
+    }
+
+    private static SlowStatementLog.SlowStatement find(List<SlowStatementLog.SlowStatement> statements, String operation) {
+        for (SlowStatementLog.SlowStatement statement : statements) {
+            if (statement.operation().equals(operation)) return statement;
+        }
+        fail("No slow statement for operation " + operation + " in " + statements);
+        return null;
+    }
+
+    @Test
+    void flagsScansAndNotSearches() {
+        List<SlowStatementLog.SlowStatement> statements = new CopyOnWriteArrayList<>();
+        Database database = this.database(Duration.ZERO, statements);
+        Table<Integer> table = database.getTable(Integer.class, "players");
+        Table.<Integer>saver(table, database).saveRow(1, List.of("alice", "red"));
+        Table.Loader<Integer> loader = Table.loader(table, database);
+
+        statements.clear();
+        loader.loadRow(1);
+        SlowStatementLog.SlowStatement loadRow = find(statements, "loadRow");
+        assertEquals("players", loadRow.table());
+        assertEquals(1, loadRow.parameterCount());
+        assertFalse(loadRow.plan().isScan(), loadRow.plan().toString());
+
+        statements.clear();
+        loader.query().where(table.getColumn(String.class, "team").eq("red")).list();
+        assertFalse(find(statements, "query").plan().isScan(), statements.toString());
+
+        statements.clear();
+        loader.query().where(table.getColumn(String.class, "name").eq("alice")).list();
+        SlowStatementLog.SlowStatement scan = find(statements, "query");
+        assertTrue(scan.plan().isScan(), scan.plan().toString());
+        // the plan is captured once per SQL and kept
+        assertSame(scan.plan(), database.getSlowStatementLog().getPlan(scan.sql()));
+        loader.query().where(table.getColumn(String.class, "name").eq("bob")).list();
+        assertSame(scan.plan(), statements.get(statements.size() - 1).plan());
+        database.closeConnection();
+    }
+
+    @Test
+    void fastStatementsAreNotReported() {
+        List<SlowStatementLog.SlowStatement> statements = new CopyOnWriteArrayList<>();
+        Database database = this.database(Duration.ofHours(1), statements);
+        Table<Integer> table = database.getTable(Integer.class, "players");
+        Table.<Integer>saver(table, database).saveRow(1, List.of("alice", "red"));
+        Table.Loader<Integer> loader = Table.loader(table, database);
+        loader.loadRow(1);
+        loader.query().where(table.getColumn(String.class, "name").eq("alice")).list();
+        assertEquals(List.of(), statements);
+        assertTrue(database.getSlowStatementLog().getPlans().isEmpty());
+        database.closeConnection();
+    }
+
+    @Test
+    void countsParametersOutsideLiterals() {
+        assertEquals(2, QueryPlan.countParameters("SELECT a FROM t WHERE b = ? AND c = '?' AND d = ?"));
+        assertEquals(0, QueryPlan.countParameters("SELECT 'it''s?' FROM t"));
+    }
+}
@@ -0,0 +1,150 @@
+package me.vermulst.vermulstutils.data;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TableMigrationTest {
+
+    @TempDir
+    Path directory;
+
+    private String path() {
+        return this.directory.resolve("migration").toString();
+    }
+
+    private static <T> Table.Builder<T> items(Class<T> keyType, Column.Builder<?>... columns) {
+        List<Column.Builder> columnBuilders = new ArrayList<>();
+        columnBuilders.add(Column.builder(keyType).name("id").columnProperties(Column.ColumnProperty.PRIMARY_KEY, Column.ColumnProperty.NOT_NULL));
+        columnBuilders.addAll(List.of(columns));
+        return Table.builder(keyType)
+                .name("items")
+                .columnBuilders(columnBuilders)
+                .migration(1, (table, copiedRows, totalRows) -> {});
+    }
+
+    private <T> void create(Class<T> keyType, Table.Builder<T> builder, Map<T, List<Object>> rows) {
+        Database database = Database.builder()
+                .path(this.path())
+                .clearExistingTables()
+                .addAndOverride(builder)
+                .build();
+        Table.<T>saver(database.getTable(keyType, "items"), database).saveRows(rows);
+        database.closeConnection();
+    }
+
+    private Database open() {
+        return Database.builder()
+                .path(this.path())
+                .clearExistingTables()
+                .build();
+    }
+
+    /** No checkpoint, new table or migration triggers are left behind
+     */
+    private static void assertNoMigration(Database database) throws SQLException {
+        Connection connection = database.getConnection();
+        assertFalse(TableMigration.isPending(connection, "items"));
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT name FROM sqlite_master WHERE type = 'trigger' OR name = 'vsqlite_new_items'")) {
+            assertFalse(resultSet.next());
+        }
+    }
+
+    /** The migration left the old table as it was, and it can be written as before
+     */
+    private <T> void assertUnchanged(Database database, Class<T> keyType, Map<T, List<Object>> rows, T newKey) throws SQLException {
+        assertNoMigration(database);
+        try (PreparedStatement statement = database.getConnection().prepareStatement("INSERT INTO items (id, name) VALUES (?, NULL)")) {
+            statement.setObject(1, newKey);
+            statement.executeUpdate();
+        }
+        database.closeConnection();
+        Database reopened = Database.builder()
+                .path(this.path())
+                .build();
+        Table<T> table = reopened.getTable(keyType, "items");
+        assertEquals(rows, Table.<T>loader(table, reopened).loadRows(rows.keySet()));
+        assertTrue(Table.<T>loader(table, reopened).entryExists(newKey));
+        reopened.closeConnection();
+    }
+
+    @Test
+    void rebuildKeepsAllRows() {
+        Map<Integer, List<Object>> rows = Map.of(1, List.of("x", 1), 2, List.of("x", 1), 3, List.of("y", 1));
+        this.create(Integer.class, items(Integer.class, Column.builder(String.class).name("name"), Column.builder(Integer.class).name("level").defaultValue(1)), rows);
+        Database database = this.open();
+        Table<Integer> table = items(Integer.class, Column.builder(String.class).name("name"), Column.builder(Integer.class).name("level").defaultValue(2))
+                .build(database.getWriter());
+        assertEquals(rows, Table.<Integer>loader(table, database).loadRows(rows.keySet()));
+        database.closeConnection();
+    }
+
+    @Test
+    void uniqueColumnWithDuplicatesFails() throws SQLException {
+        Map<Integer, List<Object>> rows = Map.of(1, List.of("x"), 2, List.of("x"), 3, List.of("y"));
+        this.create(Integer.class, items(Integer.class, Column.builder(String.class).name("name")), rows);
+        Database database = this.open();
+        RuntimeException exception = assertThrows(RuntimeException.class, () -> items(Integer.class,
+                Column.builder(String.class).name("name").columnProperties(Column.ColumnProperty.UNIQUE)).build(database.getWriter()));
+        assertTrue(exception.getCause().getMessage().contains("UNIQUE constraint on name"), exception.getCause().getMessage());
+        this.assertUnchanged(database, Integer.class, rows, 4);
+    }
+
+    @Test
+    void addedUniqueColumnWithDefaultFails() throws SQLException {
+        Map<Integer, List<Object>> rows = Map.of(10, List.of("x"), 20, List.of("y"));
+        this.create(Integer.class, items(Integer.class, Column.builder(String.class).name("name")), rows);
+        Database database = this.open();
+        RuntimeException exception = assertThrows(RuntimeException.class, () -> items(Integer.class,
+                Column.builder(String.class).name("name"),
+                Column.builder(Integer.class).name("rank").defaultValue(0)
+                        .columnProperties(Column.ColumnProperty.NOT_NULL, Column.ColumnProperty.UNIQUE)).build(database.getWriter()));
+        assertTrue(exception.getCause().getMessage().contains("UNIQUE constraint on rank"), exception.getCause().getMessage());
+        this.assertUnchanged(database, Integer.class, rows, 30);
+    }
+
+    @Test
+    void failedCopyRemovesTriggers() throws SQLException {
+        Map<String, List<Object>> rows = Map.of("a", List.of("x"), "b", List.of("y"));
+        this.create(String.class, items(String.class, Column.builder(String.class).name("name")), rows);
+        Database database = this.open();
+        // a text key cannot be copied into an INTEGER PRIMARY KEY
+        assertThrows(RuntimeException.class, () -> items(Integer.class, Column.builder(String.class).name("name")).build(database.getWriter()));
+        this.assertUnchanged(database, String.class, rows, "c");
+    }
+
+    @Test
+    void writeBreakingNewConstraintDuringMigrationFails() {
+        Map<Integer, List<Object>> rows = Map.of(1, List.of("x"), 2, List.of("y"), 3, List.of("z"));
+        this.create(Integer.class, items(Integer.class, Column.builder(String.class).name("name")), rows);
+        Database database = this.open();
+        List<SQLException> failures = new ArrayList<>();
+        Table.Builder<Integer> builder = items(Integer.class, Column.builder(String.class).name("name").columnProperties(Column.ColumnProperty.UNIQUE))
+                .migration(1, (name, copiedRows, totalRows) -> {
+                    if (copiedRows != 1) return;
+                    // the old table has no UNIQUE constraint, the trigger writing the row to the new table has
+                    try (Statement statement = database.getConnection().createStatement()) {
+                        statement.executeUpdate("INSERT INTO items (id, name) VALUES (4, 'x')");
+                    } catch (SQLException e) {
+                        failures.add(e);
+                    }
+                });
+        Table<Integer> table = builder.build(database.getWriter());
+        assertEquals(1, failures.size());
+        assertEquals(rows, Table.<Integer>loader(table, database).loadRows(rows.keySet()));
+        assertFalse(Table.loader(table, database).entryExists(4));
+        database.closeConnection();
+    }
+}
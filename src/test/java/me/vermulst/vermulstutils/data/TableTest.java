@@ -0,0 +1,203 @@
+package me.vermulst.vermulstutils.data;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TableTest {
+
+    @TempDir
+    Path directory;
+
+    private static Table.Builder<Integer> players() {
+        return Table.builder(Integer.class)
+                .name("players")
+                .columnBuilders(List.of(
+                        Column.builder(Integer.class).name("id").columnProperties(Column.ColumnProperty.PRIMARY_KEY, Column.ColumnProperty.NOT_NULL),
+                        Column.builder(String.class).name("name")));
+    }
+
+    @Test
+    void createsTableInNewDatabase() throws SQLException {
+        String path = this.directory.resolve("new").toString();
+        Database database = Database.builder()
+                .path(path)
+                .addAndOverride(players())
+                .build();
+        Table<Integer> table = database.getTable(Integer.class, "players");
+        assertNotNull(table);
+        Table.saver(table, database).saveRow(1, List.of("alice"));
+        assertEquals(List.of("alice"), Table.loader(table, database).loadRow(1));
+        try (PreparedStatement statement = database.getConnection().prepareStatement("SELECT fingerprint FROM " + Table.SCHEMA_TABLE + " WHERE name = ?")) {
+            statement.setString(1, "players");
+            try (ResultSet resultSet = statement.executeQuery()) {
+                assertTrue(resultSet.next(), "fingerprint of the new table is stored");
+            }
+        }
+        database.closeConnection();
+
+        Database reopened = Database.builder()
+                .path(path)
+                .build();
+        Table<Integer> discovered = reopened.getTable(Integer.class, "players");
+        assertNotNull(discovered);
+        assertEquals(List.of("alice"), Table.loader(discovered, reopened).loadRow(1));
+        reopened.closeConnection();
+    }
+
+    private static String readCreateStatement(Database database) throws SQLException {
+        return readCreateStatement(database, "players");
+    }
+
+    private static String readCreateStatement(Database database, String tableName) throws SQLException {
+        try (Statement statement = database.getConnection().createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT sql FROM sqlite_master WHERE type = 'table' AND name = '" + tableName + "'")) {
+            assertTrue(resultSet.next());
+            return resultSet.getString(1);
+        }
+    }
+
+    @Test
+    void keepsDeclaredColumnTypesOfExistingTable() throws SQLException {
+        String path = this.directory.resolve("existing").toString();
+        Database database = Database.builder()
+                .path(path)
+                .build();
+        String createStatement = "CREATE TABLE players (id INTEGER PRIMARY KEY NOT NULL, xp INT NOT NULL DEFAULT 0, name VARCHAR(16))";
+        try (Statement statement = database.getConnection().createStatement()) {
+            statement.execute(createStatement);
+            statement.execute("INSERT INTO players (id, xp, name) VALUES (1, 10, 'alice')");
+        }
+        database.closeConnection();
+
+        // discovered as Long and String, which would otherwise be declared BIGINT and TEXT
+        Database discovered = Database.builder()
+                .path(path)
+                .build();
+        Table<Integer> table = discovered.getTable(Integer.class, "players");
+        assertTrue(SchemaDiff.compare(table, discovered.getConnection()).isEmpty());
+        assertEquals(createStatement, readCreateStatement(discovered));
+        discovered.closeConnection();
+
+        Database declared = Database.builder()
+                .path(path)
+                .addAndOverride(Table.builder(Integer.class)
+                        .name("players")
+                        .columnBuilders(List.of(
+                                Column.builder(Integer.class).name("id").columnProperties(Column.ColumnProperty.PRIMARY_KEY, Column.ColumnProperty.NOT_NULL),
+                                Column.builder(Long.class).name("xp").columnProperties(Column.ColumnProperty.NOT_NULL).defaultValue(0L),
+                                Column.builder(String.class).name("name"))))
+                .build();
+        assertEquals(createStatement, readCreateStatement(declared));
+        Table<Integer> declaredTable = declared.getTable(Integer.class, "players");
+        assertEquals(List.of(10L, "alice"), Table.loader(declaredTable, declared).loadRow(1));
+        declared.closeConnection();
+    }
+
+    @Test
+    void keyChunksShareStatements() {
+        Database database = Database.builder()
+                .path(this.directory.resolve("chunks").toString())
+                .addAndOverride(players())
+                .build();
+        Table<Integer> table = database.getTable(Integer.class, "players");
+        Map<Integer, List<Object>> rows = new LinkedHashMap<>();
+        for (int i = 0; i < 200; i++) {
+            rows.put(i, List.of("player_" + i));
+        }
+        Table.<Integer>saver(table, database).saveRows(rows);
+        Table.Loader<Integer> loader = Table.<Integer>loader(table, database);
+        Table.Deleter<Integer> deleter = Table.<Integer>deleter(table, database);
+        long misses = database.getStatementCache().getMisses();
+        int deleted = 0;
+        for (int count = 1; count < 20; count++) {
+            List<Integer> keys = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                keys.add(deleted++);
+            }
+            assertEquals(count, loader.loadRows(keys).size());
+            assertEquals(count, loader.exists(keys).size());
+            assertEquals(count, deleter.deleteEntries(keys));
+        }
+        // one statement each for chunks of up to 1, 8 and 64 keys
+        assertTrue(database.getStatementCache().getMisses() - misses <= 3 * 3, "statements prepared: " + (database.getStatementCache().getMisses() - misses));
+        assertEquals(200 - deleted, loader.count());
+        database.closeConnection();
+    }
+
+    @Test
+    void keepsDefaultExpressionsOfExistingTable() throws SQLException {
+        String path = this.directory.resolve("defaults").toString();
+        Database database = Database.builder()
+                .path(path)
+                .build();
+        String createStatement = "CREATE TABLE events (id INTEGER PRIMARY KEY NOT NULL, created TEXT DEFAULT CURRENT_TIMESTAMP, flag BOOLEAN DEFAULT FALSE, amount INTEGER DEFAULT (5), note TEXT DEFAULT 'it''s')";
+        try (Statement statement = database.getConnection().createStatement()) {
+            statement.execute(createStatement);
+        }
+        database.closeConnection();
+
+        for (int i = 0; i < 2; i++) {
+            Database discovered = Database.builder()
+                    .path(path)
+                    .build();
+            Table<Integer> table = discovered.getTable(Integer.class, "events");
+            assertTrue(SchemaDiff.compare(table, discovered.getConnection()).isEmpty());
+            assertEquals("it's", table.getColumn(String.class, "note").getDefaultValue());
+            try (Statement statement = discovered.getConnection().createStatement();
+                 ResultSet resultSet = statement.executeQuery("SELECT sql FROM sqlite_master WHERE name = 'events'")) {
+                assertTrue(resultSet.next());
+                assertEquals(createStatement, resultSet.getString(1));
+            }
+            Table.saver(table, discovered).saveEntry(i);
+            List<Object> row = Table.loader(table, discovered).loadRow(i);
+            assertNotEquals("CURRENT_TIMESTAMP", row.get(0));
+            assertNotNull(row.get(0));
+            assertEquals(List.of(false, 5, "it's"), row.subList(1, 4));
+            discovered.closeConnection();
+        }
+    }
+
+    @Test
+    void equalDefaultsNeedNoMigration() throws SQLException {
+        String path = this.directory.resolve("equalDefaults").toString();
+        Database database = Database.builder()
+                .path(path)
+                .build();
+        String createStatement = "CREATE TABLE settings (id INTEGER PRIMARY KEY NOT NULL, enabled BOOLEAN NOT NULL DEFAULT FALSE, "
+                + "amount INTEGER DEFAULT (5), name TEXT DEFAULT \"guest\", ratio REAL DEFAULT 1.50, code INTEGER DEFAULT '7')";
+        try (Statement statement = database.getConnection().createStatement()) {
+            statement.execute(createStatement);
+        }
+        database.closeConnection();
+
+        Database declared = Database.builder()
+                .path(path)
+                .addAndOverride(Table.builder(Integer.class)
+                        .name("settings")
+                        .columnBuilders(List.of(
+                                Column.builder(Integer.class).name("id").columnProperties(Column.ColumnProperty.PRIMARY_KEY, Column.ColumnProperty.NOT_NULL),
+                                Column.builder(Boolean.class).name("enabled").columnProperties(Column.ColumnProperty.NOT_NULL).defaultValue(false),
+                                Column.builder(Integer.class).name("amount").defaultValue(5),
+                                Column.builder(String.class).name("name").defaultValue("guest"),
+                                Column.builder(Double.class).name("ratio").defaultValue(1.5),
+                                Column.builder(Integer.class).name("code").defaultValue(7)))
+                        .migration(1, (table, copiedRows, totalRows) -> fail("defaults that are equal in SQLite need no migration")))
+                .build();
+        Table<Integer> table = declared.getTable(Integer.class, "settings");
+        assertTrue(SchemaDiff.compare(table, declared.getConnection()).isEmpty());
+        assertEquals(createStatement, readCreateStatement(declared, "settings"));
+        declared.closeConnection();
+    }
+}
@@ -0,0 +1,136 @@
+package me.vermulst.vermulstutils.data;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WriteBehindQueueTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void fullQueueIsFlushedBeforeInterval() {
+        Database database = Database.builder()
+                .path(this.directory.resolve("queue").toString())
+                .writeBehind(2, Duration.ofHours(1), 1000)
+                .addAndOverride(Table.builder(Integer.class)
+                        .name("players")
+                        .columnBuilders(List.of(
+                                Column.builder(Integer.class).name("id").columnProperties(Column.ColumnProperty.PRIMARY_KEY, Column.ColumnProperty.NOT_NULL),
+                                Column.builder(String.class).name("name"))))
+                .build();
+        Table<Integer> table = database.getTable(Integer.class, "players");
+        Table.Saver<Integer> saver = Table.saver(table, database);
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            for (int i = 0; i < 10; i++) {
+                saver.saveRow(i, List.of("player_" + i));
+            }
+        });
+        database.flush();
+        assertEquals(10, Table.<Integer>loader(table, database).count());
+        database.closeConnection();
+    }
+
+    @Test
+    void asyncCallsSeeEarlierAsyncSaves() {
+        Database database = Database.builder()
+                .path(this.directory.resolve("async").toString())
+                .writeBehind(100, Duration.ofHours(1), 1000)
+                .addAndOverride(Table.builder(Integer.class)
+                        .name("players")
+                        .columnBuilders(List.of(
+                                Column.builder(Integer.class).name("id").columnProperties(Column.ColumnProperty.PRIMARY_KEY, Column.ColumnProperty.NOT_NULL),
+                                Column.builder(String.class).name("name"))))
+                .build();
+        Table<Integer> table = database.getTable(Integer.class, "players");
+        Table.Saver<Integer> saver = Table.saver(table, database);
+        Table.Loader<Integer> loader = Table.loader(table, database);
+        List<Integer> keys = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            saver.saveRowAsync(i, List.of("player_" + i));
+            keys.add(i);
+        }
+        CompletableFuture<List<Object>> row = loader.loadRowAsync(0);
+        CompletableFuture<Map<Integer, List<Object>>> rows = loader.loadRowsAsync(keys);
+        CompletableFuture<Integer> deleted = Table.<Integer>deleter(table, database).deleteEntriesAsync(keys.subList(0, 5));
+        CompletableFuture<Map<Integer, List<Object>>> remaining = loader.loadRowsAsync(keys);
+        assertEquals(List.of("player_0"), row.join());
+        assertEquals(10, rows.join().size());
+        assertEquals(List.of("player_9"), rows.join().get(9));
+        assertEquals(5, (int) deleted.join());
+        assertEquals(5, remaining.join().size());
+        database.closeConnection();
+    }
+
+    private static Table.Builder<Integer> uniquePlayers() {
+        return Table.builder(Integer.class)
+                .name("players")
+                .columnBuilders(List.of(
+                        Column.builder(Integer.class).name("id").columnProperties(Column.ColumnProperty.PRIMARY_KEY, Column.ColumnProperty.NOT_NULL),
+                        Column.builder(String.class).name("name").columnProperties(Column.ColumnProperty.UNIQUE)));
+    }
+
+    @Test
+    void failingRowIsDroppedAndReported() {
+        List<Object> dropped = new CopyOnWriteArrayList<>();
+        Database database = Database.builder()
+                .path(this.directory.resolve("dropped").toString())
+                .writeBehind(100, Duration.ofHours(1), 1000, (table, primaryKey, cause) -> dropped.add(table + ":" + primaryKey))
+                .addAndOverride(uniquePlayers())
+                .build();
+        Table<Integer> table = database.getTable(Integer.class, "players");
+        Table.Saver<Integer> saver = Table.saver(table, database);
+        saver.saveRow(1, List.of("alice"));
+        saver.saveRow(2, List.of("alice"));
+        saver.saveRow(3, List.of("carol"));
+        assertThrows(RuntimeException.class, database::flush);
+        assertEquals(List.of("players:2"), dropped);
+        assertEquals(0, database.getWriteBehindQueue().getPendingRows());
+        Table.Loader<Integer> loader = Table.loader(table, database);
+        assertEquals(2, loader.count());
+        assertEquals(List.of("carol"), loader.loadRow(3));
+        database.closeConnection();
+    }
+
+    @Test
+    void rowsStayQueuedWhileDatabaseIsLocked() throws SQLException {
+        String path = this.directory.resolve("locked").toString();
+        Database database = Database.builder()
+                .path(path)
+                .performanceProfile(PerformanceProfile.builder().journalMode(PerformanceProfile.JournalMode.WAL).busyTimeout(50).build())
+                .writeBehind(100, Duration.ofHours(1), 1000)
+                .addAndOverride(uniquePlayers())
+                .build();
+        Table<Integer> table = database.getTable(Integer.class, "players");
+        Table.Saver<Integer> saver = Table.saver(table, database);
+        try (Connection lock = DriverManager.getConnection("jdbc:sqlite:" + path + ".db");
+             Statement statement = lock.createStatement()) {
+            statement.execute("BEGIN IMMEDIATE");
+            saver.saveRow(1, List.of("alice"));
+            saver.saveRow(2, List.of("bob"));
+            assertThrows(RuntimeException.class, database::flush);
+            assertEquals(2, database.getWriteBehindQueue().getPendingRows());
+            // written after the failed flush, applied after the rows queued before it
+            saver.saveRow(2, List.of("bert"));
+            statement.execute("ROLLBACK");
+        }
+        database.flush();
+        assertEquals(List.of("bert"), Table.<Integer>loader(table, database).loadRow(2));
+        assertEquals(2, Table.<Integer>loader(table, database).count());
+        database.closeConnection();
+    }
+}